@@ -0,0 +1,22 @@
+package TerrainBaseBench;
+
+/**
+ * Entry point for the JMH benchmark suite.  The benchmarks are kept in their own source folder as JMH is not part of the 
+ * application's build path.  To run them compile this folder against the application classes, jmh-core and 
+ * jmh-generator-annprocess (which generates the benchmark harness at compile time), then run this class.  Arguments are 
+ * passed to JMH, so a regular expression selects which benchmarks run, e.g. "UpdateBenchmark", and -h lists the options.
+ * @author Philip Larby
+ *
+ */
+public class BenchmarkMain
+{
+	/**
+	 * Application entry point
+	 * @param args JMH command line arguments
+	 * @throws Exception if JMH fails to run the benchmarks
+	 */
+	public static void main(String args[]) throws Exception
+	{
+		org.openjdk.jmh.Main.main(args);
+	}
+}
@@ -0,0 +1,60 @@
+package TerrainBaseBench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import TerrainBase.Cell;
+import TerrainBase.Helpers;
+import TerrainBase.Surface;
+
+/**
+ * Measures constructing a cell for each of the 256 vertex patterns, as CubeBase does, and the exhaustive edge loop search 
+ * the edge loop table replaces
+ * @author Philip Larby
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CellBenchmark
+{
+	private Cell[] _cells = new Cell[256];
+
+	@Setup
+	public void setup()
+	{
+		for (int i = 0; i < 256; i++)
+			_cells[i] = new Cell(i);
+	}
+
+	@Benchmark
+	public void constructAllPatterns(Blackhole bh)
+	{
+		for (int i = 0; i < 256; i++)
+			bh.consume(new Cell(i));
+	}
+
+	@Benchmark
+	public void shortestLoopAllPatterns(Blackhole bh)
+	{
+		for (int i = 0; i < 256; i++)
+			for (int group : Surface.getVertexGroups(i))
+				bh.consume(_cells[i].ShortestLoop(Surface.getEdgeLoop(group)));
+	}
+
+	@Benchmark
+	public void permuteAllPatterns(Blackhole bh)
+	{
+		for (int i = 0; i < 256; i++)
+			for (int group : Surface.getVertexGroups(i))
+				bh.consume(Helpers.permute(Surface.getEdgeLoop(group)));
+	}
+}
@@ -0,0 +1,81 @@
+package TerrainBaseBench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import TerrainBase.Cell;
+import TerrainBase.DensityField;
+import TerrainBase.Helpers;
+import TerrainBase.SphereField;
+import TerrainBase.TerrainField;
+
+/**
+ * Measures density evaluation for a single point, a batch of lattice points, and a whole cell
+ * @author Philip Larby
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class DensityBenchmark
+{
+	private static final int BATCH = 1024;
+
+	@Param({"sphere", "terrain"})
+	public String field;
+
+	private Cell _cell;
+	private float[] _x = new float[BATCH], _y = new float[BATCH], _z = new float[BATCH], _out = new float[BATCH];
+	private int _next = 0;
+
+	@Setup
+	public void setup()
+	{
+		float d = Helpers.EarthDiameter;
+		float radius = d / 2.5f;
+
+		_cell = new Cell(0, 0, 0, d, d, d);
+		DensityField f = field.equals("terrain") ? new TerrainField(0, 0, 0, radius) : new SphereField(0, 0, 0, radius);
+		_cell.setDensityField(f);
+
+		//Points spread through a shell either side of the surface
+		Random r = new Random(1);
+		for (int i = 0; i < BATCH; i++)
+		{
+			float s = radius * (0.9f + r.nextFloat() * 0.2f);
+			float theta = (float)(r.nextFloat() * Math.PI * 2), phi = (float)(r.nextFloat() * Math.PI);
+			_x[i] = s * (float)(Math.sin(phi) * Math.cos(theta));
+			_y[i] = s * (float)(Math.sin(phi) * Math.sin(theta));
+			_z[i] = s * (float)Math.cos(phi);
+		}
+	}
+
+	@Benchmark
+	public float point()
+	{
+		int i = _next = (_next + 1) % BATCH;
+		return Helpers.Density(_x[i], _y[i], _z[i], _cell);
+	}
+
+	@Benchmark
+	public float[] batch()
+	{
+		_cell.getDensityField().density(_x, _y, _z, _out, BATCH);
+		return _out;
+	}
+
+	@Benchmark
+	public float cell()
+	{
+		return Helpers.Density(_cell);
+	}
+}
@@ -0,0 +1,67 @@
+package TerrainBaseBench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import TerrainBase.Cell;
+import TerrainBase.GridPatch;
+import TerrainBase.Helpers;
+import TerrainBase.IndexedMesh;
+import TerrainBase.Patch;
+
+/**
+ * Measures building a single patch subdividing a root cell, as a patch of cells and as a grid patch, and building the 
+ * indexed mesh of a patch
+ * @author Philip Larby
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PatchBenchmark
+{
+	@Param({"2", "4", "8", "16"})
+	public int resolution;
+
+	@Param({"true", "false"})
+	public boolean parallel;
+
+	private Cell _root;
+	private Patch _patch;
+
+	@Setup
+	public void setup()
+	{
+		Helpers.ParallelPatchConstruction = parallel;
+
+		float d = Helpers.EarthDiameter;
+		_root = new Cell(0, 0, 0, d, d, d);
+		_patch = new Patch(resolution, resolution, resolution, _root);
+	}
+
+	@Benchmark
+	public Patch buildPatch()
+	{
+		return new Patch(resolution, resolution, resolution, _root);
+	}
+
+	@Benchmark
+	public Patch buildGridPatch()
+	{
+		return new GridPatch(resolution, resolution, resolution, _root);
+	}
+
+	@Benchmark
+	public IndexedMesh buildMesh()
+	{
+		return _patch.buildMesh();
+	}
+}
@@ -0,0 +1,72 @@
+package TerrainBaseBench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import TerrainBase.FixedViewpoint;
+import TerrainBase.Helpers;
+import TerrainBase.Scaffold;
+
+/**
+ * Measures construction of a scaffold, both the root patch alone and with the levels of detail required by a viewpoint
+ * close to the surface.  Levels of detail are built synchronously so the whole cost is measured on the benchmark thread.
+ * @author Philip Larby
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScaffoldBenchmark
+{
+	@Param({"2", "4", "8"})
+	public int rootCellResolution;
+
+	@Param({"2", "3"})
+	public int patchResolution;
+
+	private FixedViewpoint _view;
+
+	@Setup
+	public void setup()
+	{
+		Helpers.RootCellResolution = rootCellResolution;
+		Helpers.PatchResolution = patchResolution;
+		Helpers.AsyncLOD = false;
+
+		//Two diameters from the centre of the default sphere, so levels of detail stay bounded at the higher resolutions
+		_view = new FixedViewpoint(0, 0, Helpers.EarthDiameter * 2);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		Helpers.AsyncLOD = true;
+	}
+
+	@Benchmark
+	public Scaffold construct()
+	{
+		Scaffold s = new Scaffold(rootCellResolution);
+		s.dispose();
+		return s;
+	}
+
+	@Benchmark
+	public Scaffold constructToViewpoint()
+	{
+		Scaffold s = new Scaffold(rootCellResolution);
+		s.setViewpoint(_view);
+		s.refine(100);
+		s.dispose();
+		return s;
+	}
+}
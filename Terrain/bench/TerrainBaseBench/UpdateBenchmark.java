@@ -0,0 +1,59 @@
+package TerrainBaseBench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import TerrainBase.FixedViewpoint;
+import TerrainBase.Helpers;
+import TerrainBase.Scaffold;
+
+/**
+ * Measures a full update pass of a scaffold that has already been refined for a fixed viewpoint, so no levels of detail are
+ * added or removed during measurement.  The viewpoint altitude is given as a multiple of the default sphere radius above
+ * its surface.
+ * @author Philip Larby
+ *
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class UpdateBenchmark
+{
+	@Param({"2.0", "0.5", "0.05"})
+	public float altitude;
+
+	private Scaffold _scaffold;
+
+	@Setup
+	public void setup()
+	{
+		Helpers.AsyncLOD = false;
+
+		float radius = Helpers.EarthDiameter / 2.5f;
+		_scaffold = new Scaffold(Helpers.RootCellResolution);
+		_scaffold.setViewpoint(new FixedViewpoint(0, 0, radius * (1 + altitude)));
+		_scaffold.refine(100);
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		_scaffold.dispose();
+		Helpers.AsyncLOD = true;
+	}
+
+	@Benchmark
+	public void update()
+	{
+		_scaffold.update();
+	}
+}
@@ -0,0 +1,51 @@
+package TerrainBase;
+
+/**
+ * Utilities for the bit patterns used to identify vertices and edges of a cell.  Bit n of a vertex pattern represents vertex
+ * n, and bit n of an edge pattern represents edge n.  The positions of the set bits of every 12 bit edge pattern, and so also
+ * of every 8 bit vertex pattern, are precomputed so they can be enumerated without allocating.
+ * @author Philip Larby
+ *
+ */
+public class Bits
+{
+	//Number of patterns with precomputed bit positions - every pattern of the 12 cell edges
+	private static final int TableSize = 1 << 12;
+	
+	//Positions of the set bits of each pattern in ascending order
+	private static final int[][] _indices = BuildIndexTable();
+	
+	/**
+	 * Get the positions of the set bits of a pattern.  The least significant bit is position 0
+	 * @param bm The bit pattern
+	 * @return The positions in ascending order.  For patterns of up to 12 bits the array is shared and must not be modified
+	 */
+	public static int[] Indices(int bm)
+	{
+		if (bm >= 0 && bm < TableSize)
+			return _indices[bm];
+		
+		return BuildIndices(bm);
+	}
+	
+	private static int[][] BuildIndexTable()
+	{
+		int[][] table = new int[TableSize][];
+		
+		for (int i = 0; i < TableSize; i++)
+			table[i] = BuildIndices(i);
+		
+		return table;
+	}
+	
+	//Step through the set bits by clearing the lowest set bit each time
+	private static int[] BuildIndices(int bm)
+	{
+		int[] ret = new int[Integer.bitCount(bm)];
+		
+		for (int i = 0; bm != 0; bm &= bm - 1)
+			ret[i++] = Integer.numberOfTrailingZeros(bm);
+		
+		return ret;
+	}
+}
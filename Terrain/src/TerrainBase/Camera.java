@@ -3,6 +3,7 @@ package TerrainBase;
 import processing.core.PApplet;
 import processing.core.PConstants;
 import processing.core.PVector;
+import processing.opengl.PGraphicsOpenGL;
 import peasy.*;
 
 /**
@@ -13,7 +14,7 @@ import peasy.*;
  * @author Philip Larby - Student number 070414017
  *
  */
-public class Camera {
+public class Camera implements Viewpoint {
 
 	private PeasyCam camera;
 	
@@ -21,6 +22,8 @@ public class Camera {
 	private PVector _camLook = new PVector(0.00f, 0.00f, 0.00f); 	//Look camera at origin.  Variable uses spherical coordinates with rho, phi and theta in x, y and z respectively
 	private float _nearClip = 0.000001f;  							//Clip anything closer than 1cm from the camera
 	private float _farClip = Helpers.EarthDiameter * 1000;			//Clip anything further than 100x the diameter of the planet
+	private Frustum _frustum;										//Volume visible to the camera as of the last call to set
+	private PVector _position;										//Camera position as of the last call to set
 
 	/**
 	 * Construct a camera object with default configuration
@@ -42,11 +45,25 @@ public class Camera {
 	 * Get the current camera position
 	 * @return the current position  of the camera in absolute world coordinate space
 	 */
+	@Override
 	public PVector getCam() {
 		float[] pos = camera.getPosition();
 		return new PVector(pos[0], pos[1], pos[2]);
 	}
 	
+	/**
+	 * Copy the camera position as of the last call to set, without allocating.  Before set is first called the current
+	 * position is used.
+	 * @param out Receives the position of the camera in absolute world coordinate space
+	 */
+	@Override
+	public void getCam(PVector out) {
+		if (_position == null)
+			_position = getCam();
+		
+		out.set(_position);
+	}
+	
 	/**
 	 * Get the height of the camera above the terrain surface.
 	 * @return
@@ -65,6 +82,28 @@ public class Camera {
 	public void set(PApplet P)
 	{
 		Helpers.ViewHeight = getHeight();
+		
+		//Capture the position once per frame.  PeasyCam allocates each time the position is read
+		float[] pos = camera.getPosition();
+		if (_position == null) _position = new PVector();
+		_position.set(pos[0], pos[1], pos[2]);
+		
+		//Capture the view frustum from the world transform the camera has applied
+		if (P.g instanceof PGraphicsOpenGL)
+		{
+			if (_frustum == null) _frustum = new Frustum();
+			_frustum.set(((PGraphicsOpenGL) P.g).projmodelview);
+		}
+	}
+	
+	/**
+	 * Get the volume visible to the camera as of the last call to set
+	 * @return the view frustum, or null if set has not been called with an OpenGL renderer
+	 */
+	@Override
+	public Frustum getFrustum()
+	{
+		return _frustum;
 	}
 	
 	/**
@@ -79,8 +118,9 @@ public class Camera {
 	/**
 	 * Add a default HUD to allow a static overlay
 	 * @param P The processing PApplet to apply the static overlay to
+	 * @param S The scaffold being displayed
 	 */
-	public void addHUD(PApplet P)
+	public void addHUD(PApplet P, Scaffold S)
 	{
 		P.strokeWeight(1);
 		
@@ -88,25 +128,28 @@ public class Camera {
 		//top left stats panel
 		P.fill(0,0,0,120);
 		P.stroke(85);
-		P.rect(0, 0, 250, 160);
+		P.rect(0, 0, 250, 220);
 		P.fill(255);
 		P.textSize(15);
 		P.stroke(255);
-		P.text("First Cycle Time: " + Math.round(Helpers.FirstCycleTime * 1000) / 1000f , 10, 20); 
+		P.text("First Cycle Time: " + Math.round(Profiler.getFirstFrameTime() * 1000) / 1000f , 10, 20); 
 		//P.text("FPS: " + Math.round(P.frameRate) , 10, 40); // This was reporting incorrectly
-		P.text("FPS: " + Helpers.FPS , 10, 40); // My own implementation of an FPS counter
+		P.text("FPS: " + Profiler.getFPS() , 10, 40); // My own implementation of an FPS counter
 		P.text("Distance to origin: " + Math.round(camera.getDistance()) , 10, 60); 
 		P.text("Distance to surface: " + Math.round(Helpers.ViewHeight) , 10, 80); 
-		P.text("Patches: " + Helpers.PatchCount , 10, 100); 
-		P.text("Cells: " + Helpers.CellCount , 10, 120); 
+		P.text("Patches: " + Helpers.PatchCount.get() , 10, 100); 
+		P.text("Cells: " + Helpers.CellCount.get() , 10, 120); 
 		P.text("Smallest Cell: " + Helpers.SmallestCellDiameter + " Km", 10, 140); 
+		P.text("Patches Building: " + S.getScheduler().pendingCount(), 10, 160); 
+		P.text("Patches Added/Removed: " + Helpers.LODAdds + "/" + Helpers.LODClears, 10, 180); 
+		P.text("Cache Hit/Miss/Evict: " + S.getPatchCache().getHits() + "/" + S.getPatchCache().getMisses() + "/" + S.getPatchCache().getEvictions(), 10, 200); 
 		
 		//Bottom right options panel
 		int x = P.width - 250;
-		int y = P.height - 230;
+		int y = P.height - 370;
 		P.fill(0,0,0,120);
 		P.stroke(85);
-		P.rect(x, y, 250, 230);    
+		P.rect(x, y, 250, 370);    
 		P.fill(255);
 		P.textSize(15);
 		P.stroke(255);
@@ -120,7 +163,54 @@ public class Camera {
 		P.text("Density Threshold (+, -): " + Math.round(Helpers.DensityThreshold * 100) / 100d, x + 10, y + 170);
 		P.text("Root Cell Resolution (a, z): " + Helpers.RootCellResolution, x + 10, y + 190);
 		P.text("Patch Subdivision (s, x): " + Helpers.PatchResolution, x + 10, y + 210);
+		P.text("Grid Leaf Patches (l): " + Helpers.UseGridPatches, x + 10, y + 230);
+		P.text("Density Field (d): " + S.getDensityField().getClass().getSimpleName(), x + 10, y + 250);
+		P.text("Background LOD (y): " + Helpers.AsyncLOD, x + 10, y + 270);
+		P.text("Retained Meshes (m): " + Helpers.RetainedMeshes, x + 10, y + 290);
+		P.text("Profiler (f, e export): " + Profiler.Enabled, x + 10, y + 310);
+		P.text("Frustum Culling (k): " + Helpers.FrustumCulling, x + 10, y + 330);
+		P.text("Horizon Culling (h): " + Helpers.HorizonCulling, x + 10, y + 350);
+		
+		//Top right profiler panel
+		if (Profiler.Enabled)
+			addProfilerHUD(P);
 		
 		camera.endHUD();
 	}
+	
+	//Draw frame timings over recent frames in milliseconds, with allocations and cell counts for each level of detail
+	private void addProfilerHUD(PApplet P)
+	{
+		int[] levels = Profiler.getCellsPerLevel();
+		int x = P.width - 330;
+		int y = 0;
+		int h = 80 + Profiler.PhaseNames.length * 20 + levels.length / 4 * 20;
+		
+		P.fill(0,0,0,120);
+		P.stroke(85);
+		P.rect(x, y, 330, h);
+		P.fill(255);
+		P.textSize(15);
+		P.text("Profile over " + Profiler.getFrameCount() + " frames (ms)", x + 10, y + 20);
+		P.text("p50 / p99 / max", x + 170, y + 40);
+		
+		for (int i = 0; i < Profiler.PhaseNames.length; i++)
+		{
+			y += 20;
+			P.text(Profiler.PhaseNames[i], x + 10, y + 40);
+			P.text(Math.round(Profiler.percentile(i, 50) * 100) / 100f + " / " + Math.round(Profiler.percentile(i, 99) * 100) / 100f +
+					" / " + Math.round(Profiler.percentile(i, 100) * 100) / 100f, x + 170, y + 40);
+		}
+		
+		y += 20;
+		P.text("Allocated KB: " + Profiler.allocationPercentile(50) / 1024 + " / " + Profiler.allocationPercentile(99) / 1024 + 
+				" / " + Profiler.allocationPercentile(100) / 1024, x + 10, y + 40);
+		
+		//Cells at each level of detail, four levels to a line
+		for (int i = 0; i < levels.length; i += 4)
+		{
+			y += 20;
+			P.text("L" + i + "-" + (i + 3) + ": " + levels[i] + ", " + levels[i + 1] + ", " + levels[i + 2] + ", " + levels[i + 3], x + 10, y + 40);
+		}
+	}
 }
@@ -1,7 +1,6 @@
 package TerrainBase;
 
 import java.util.ArrayList;
-import java.util.Collections;
 
 
 
@@ -18,18 +17,27 @@ public class Cell
 	private Patch _childPatch;  //A child Patch defining a finer grained level of detail - may or may not exist
 	private int _level;         //The level of this point in the definition tree
 	private PVector _pos; //Cell position relative to the parent patch position
+	private PVector _absPos;  	//Cell position in world coordinates - cells never move so this is fixed at construction
 	private PVector _size;    	//The size of the cell
-	private PVector _normal;	//The normal of the patch from position point
 	private Cell _parentCell;	//The parent Cell - null if root
+	private Cell _rootCell;		//The root Cell of the scaffold - this cell if root
 	private Patch _parentPatch;	//The parent patch - null if root
 	private DensityVertex[] _bVertex;	//A collection of vertex points defining the bounding box
 	private DensityVertex[] _eVertex;   //A collection of vertex points defining the centre point of each edge
+	private PVector[] _sVertex;			//The point where the surface crosses each bisected edge - null for other edges
+	private PVector[] _sNormal;			//The outward surface normal at each point in _sVertex
 	private int _identifier = -1;	//An identifier for the pattern of vertices inside and outside the surface
 	private float _maxDistance = -1;
 	private float _minDistance = -1;
 	private short _vertexGroupCount = -1;
-	private PVector[][] _triangleVertex;
+	private PVector[] _triangles;		//Corners of the surface triangles in the cell, three to a triangle
+	private PVector[] _triangleNormals; //Normals of the points in _triangles
 	private float[][] _edgeDistances;
+	private DensityField _densityField; //The density field defining the surface - shared with the root cell
+	private Scaffold _scaffold;			//The scaffold this cell belongs to - only set on the root cell
+	private String _address;			//Lattice coordinate path from the root cell, used to identify cached patches
+	private boolean _lodPending = false; //A child patch has been requested from the scheduler but not yet attached
+	private long _childPatchTime;		//Time the current child patch was attached, from System.nanoTime
 	
   
 	/**
@@ -101,6 +109,45 @@ public class Cell
    * @param vertexPattern Integer bit pattern specified which vertices are flagged as inside of outside the surface.  Bit positions correspond with vertex numbers as specified in the report
    */
   public Cell(float x, float y, float z, int level, float xBounds, float yBounds, float zBounds, Patch parent, int vertexPattern)
+  {
+	  this(x, y, z, level, xBounds, yBounds, zBounds, parent, vertexPattern == -1 ? null : PatternDensities(vertexPattern));
+  }
+  
+  /**
+   * Constructs a new cell with known densities at each bounding vertex
+   * @param x Cell position in x dimension
+   * @param y Cell position in y dimension
+   * @param z Cell position in z dimension
+   * @param level the distance from the object root
+   * @param xBounds The distance of the cell boundary from the position point in x dimension
+   * @param yBounds The distance of the cell boundary from the position point in y dimension
+   * @param zBounds The distance of the cell boundary from the position point in z dimension
+   * @param parent a reference to the Cell's immediate parent 
+   * @param vertexDensity The density at each of the 8 bounding vertices in vertex number order.  If null the densities are 
+   * evaluated from the density function as required
+   */
+  public Cell(float x, float y, float z, int level, float xBounds, float yBounds, float zBounds, Patch parent, float[] vertexDensity)
+  {
+	  this(x, y, z, level, xBounds, yBounds, zBounds, parent, vertexDensity, null);
+  }
+  
+  /**
+   * Constructs a new cell with known densities and density gradients at each bounding vertex
+   * @param x Cell position in x dimension
+   * @param y Cell position in y dimension
+   * @param z Cell position in z dimension
+   * @param level the distance from the object root
+   * @param xBounds The distance of the cell boundary from the position point in x dimension
+   * @param yBounds The distance of the cell boundary from the position point in y dimension
+   * @param zBounds The distance of the cell boundary from the position point in z dimension
+   * @param parent a reference to the Cell's immediate parent 
+   * @param vertexDensity The density at each of the 8 bounding vertices in vertex number order.  If null the densities are 
+   * evaluated from the density function as required
+   * @param vertexGradient The x, y and z components of the density gradient at each of the 8 bounding vertices in vertex 
+   * number order.  If null the gradient across the whole cell is estimated from the vertex densities
+   */
+  public Cell(float x, float y, float z, int level, float xBounds, float yBounds, float zBounds, Patch parent, float[] vertexDensity, 
+		  float[] vertexGradient)
   {
 	Helpers.log(1,"Starting cell construction");
 	
@@ -113,13 +160,12 @@ public class Cell
     _bVertex = getBoundingVertex();
     _eVertex = buildEdgeCentreVertex();
     
-    //If a vertex Pattern has been specified then apply it
-    if (vertexPattern != -1)
+    //If vertex densities have been specified then apply them
+    if (vertexDensity != null)
     {
 	    for (int i = 0; i < _bVertex.length; i++)
 	    {
-	    	//Set the density value to the corresponding bit value in the vertex pattern
-	    	_bVertex[i].setDensity(vertexPattern >> i & 1);
+	    	_bVertex[i].setDensity(vertexDensity[i]);
 	    }
     }
  
@@ -129,37 +175,32 @@ public class Cell
     {
     	_parentPatch = parent;
         _parentCell = _parentPatch.getParentCell();
+        _densityField = _parentCell.getDensityField();
     }
     
-    GroupVertices((short)0); //Assign group identities to bounding vertex
-  
-    int[] bisectedEdges = Surface.BitsToIntegers(Surface.getBisectedEdges((short)getIdentifier()));
-    _edgeDistances = CalculateEdgeVertexDistances(bisectedEdges);
-       
-    //Derive Triangle strip vertices from vertex groups
-    //First vector dimension corresponds to the number of vertex groups
-	_triangleVertex = new PVector[vertexGroupCount()][];
-	
-	//Iterate through vertex groups getting triangle vertex positions
-    for (int i = 0; i < vertexGroupCount(); i++)
-    {
-    	//Get the vertices for the current group
-    	PVector[] vs = buildTriangleStrip(getVertexGroup(i));
-    	
-    	_triangleVertex[i] = new PVector[vs.length];
-    	//Get the triangles associated with each group
-    	for (int p = 0; p < vs.length; p++)
-    	{
-    		_triangleVertex[i][p] = vs[p];
-    	}
-    }
+    //Cache the root so it can be reached without stepping up the hierarchy
+    _rootCell = _parentCell == null ? this : _parentCell.getRoot();
     
+    //Cells never move, so the world position can be derived once from the parent rather than walking the hierarchy 
+    _absPos = _parentCell == null ? _pos.copy() : PVector.add(_parentCell.getAbsolutePosition(), _pos);
     
+    //Assign group identities to bounding vertex
+    int[] groups = Surface.getVertexGroups(getIdentifier());
+    GroupVertices(groups); 
     
-    if (_edgeDistances == null) 
-	{
-    	throw new RuntimeException();
-	}
+    buildSurfaceVertex(vertexGradient);
+       
+    //Derive the triangle list from the bisected edges at the corners of each triangle, so the renderer has no 
+    //polygons to tessellate
+    int[] edges = Surface.getEdgeTriangles(getIdentifier());
+    _triangles = new PVector[edges.length];
+    _triangleNormals = new PVector[edges.length];
+    
+    for (int i = 0; i < edges.length; i++)
+    {
+    	_triangles[i] = _sVertex[edges[i]];
+    	_triangleNormals[i] = _sNormal[edges[i]];
+    }
     
     //Output debug log info
     Helpers.log(1,"-> Cell Level:" + _level);
@@ -169,6 +210,18 @@ public class Cell
     Helpers.log(1,"Cell construction Complete");
   }
   
+  //Convert a vertex pattern into densities.  A pattern gives no indication of where the surface crosses an edge, so vertices
+  //are placed an equal distance either side of the density threshold to put every crossing at the centre of its edge
+  private static float[] PatternDensities(int vertexPattern)
+  {
+	  float[] ret = new float[8];
+	  
+	  for (int i = 0; i < ret.length; i++)
+		  ret[i] = Helpers.DensityThreshold + ((vertexPattern >> i & 1) == 1 ? 0.5f : -0.5f);
+	  
+	  return ret;
+  }
+  
   /**
    * Get an individual density vertex
    * @param VertexIndex the index of the density vertex being retretived	
@@ -219,11 +272,32 @@ public class Cell
 	  return _eVertex[EdgeIndex];
   }
   
+  /**
+   * Get the point where the surface crosses an edge, interpolated from the densities at either end
+   * @param EdgeIndex The index of the edge being queried
+   * @return The crossing point relative to the cell centre, or null if the edge is not bisected.  This is shared and must 
+   * not be modified
+   */
+  public PVector getSurfaceVertex(int EdgeIndex)
+  {
+	  return _sVertex[EdgeIndex];
+  }
+  
+  /**
+   * Get the outward surface normal where the surface crosses an edge
+   * @param EdgeIndex The index of the edge being queried
+   * @return The unit normal, or null if the edge is not bisected.  This is shared and must not be modified
+   */
+  public PVector getSurfaceNormal(int EdgeIndex)
+  {
+	  return _sNormal[EdgeIndex];
+  }
+  
   private void setVertexIdentifier(int VertexPosition, boolean insideSurface)
   {
 	  //If the vertex position is marked as inside then set the corresponding bit position to 1
 	  if (insideSurface)
-		  _identifier = _identifier | (int)Math.pow(2, VertexPosition);
+		  _identifier = _identifier | 1 << VertexPosition;
 	  
 	  //If the vertex position is marked as outside then set the corresponding bit position to 1
 	  //There shouldn't really be a need to negate a 1 - don't set it in the first place!
@@ -232,6 +306,28 @@ public class Cell
 		  throw new RuntimeException("Not yet implemented as not strictly required.  Can revisit");
   }
   
+  /**
+   * Get the density field defining the surface.  Cells share the density field of their parent.  A root cell with no 
+   * density field specified uses a sphere sized relative to the cell bounds.
+   * @return the density field
+   */
+  public DensityField getDensityField()
+  {
+	  if (_densityField == null)
+		  _densityField = new SphereField(_pos.x, _pos.y, _pos.z, getRootRadius());
+	  
+	  return _densityField;
+  }
+  
+  /**
+   * Set the density field defining the surface.  This should be set on the root cell before any child patches are added
+   * @param field the density field
+   */
+  public void setDensityField(DensityField field)
+  {
+	  _densityField = field;
+  }
+  
   /**
    * Get the direct parent of the patch
    * @return The parent cell
@@ -242,6 +338,33 @@ public class Cell
   }
   
   
+  /**
+   * Get the root cell of the scaffold this cell belongs to
+   * @return The root cell, or this cell if it is the root
+   */
+  public Cell getRoot()
+  {
+	  return _rootCell;
+  }
+  
+  /**
+   * Get the centre point of the root cell of the scaffold in world coordinates
+   * @return The root position.  This is shared and must not be modified
+   */
+  public PVector getRootPosition()
+  {
+	  return _rootCell._absPos;
+  }
+  
+  /**
+   * Get the radius of the planet sphere for the scaffold, as used by the default density field
+   * @return The radius, derived from the size of the root cell
+   */
+  public float getRootRadius()
+  {
+	  return _rootCell._size.x / 2.5f;
+  }
+  
   /**
    * Get the number of bounding vertex
    * @return
@@ -282,12 +405,27 @@ public class Cell
    * @return
    */
   public Patch AddLOD()
+  {
+	  return AddLOD(false);
+  }
+  
+  /**
+   * Add an additional level of detail using the current resolution settings from the helpers class
+   * @param leaf indicates no further levels of detail will be required below the new patch, so a grid patch may be used
+   * @return
+   */
+  public Patch AddLOD(boolean leaf)
   {
 	  //If no resolution is explicitly defined then assume 2 in each dimensions
-	  return AddLOD(Helpers.PatchResolution, Helpers.PatchResolution, Helpers.PatchResolution);
+	  return AddLOD(Helpers.PatchResolution, Helpers.PatchResolution, Helpers.PatchResolution, leaf);
   }
   
   public Patch AddLOD(int xRes, int yRes, int zRes)
+  {
+	  return AddLOD(xRes, yRes, zRes, false);
+  }
+  
+  public Patch AddLOD(int xRes, int yRes, int zRes, boolean leaf)
   {
 	  //If a patch already exists then something is not right.  Need to work out the most appropriate
 	  //way to handle this scenario if it occurs!
@@ -295,28 +433,151 @@ public class Cell
 		 throw new RuntimeException("Attempt to add a new child patch where one already exists");
 	
 	 //Create a new patch and return a reference to it
-	 Patch child = new Patch(xRes, yRes, zRes, this);
-	 return setChildPatch(child); 
+	 return setChildPatch(BuildLOD(xRes, yRes, zRes, leaf)); 
   }
   
   /**
-   * Get the maximum distance of the cell from the centre of the root cell
-   * @return
+   * Build a patch for an additional level of detail without attaching it to this cell.  Safe to call from a worker thread.
+   * @param xRes X resolution
+   * @param yRes Y resolution
+   * @param zRes Z resolution
+   * @param leaf indicates no further levels of detail will be required below the new patch, so a grid patch may be used
+   * @return the new patch
    */
-  public float getMaxDist()
+  public Patch BuildLOD(int xRes, int yRes, int zRes, boolean leaf)
   {
-	  if (_maxDistance < 0)
+	  long t = Profiler.start();
+	  
+	  //Grid patches hold no cell objects so can only be used as leaves
+	  Patch p = leaf && Helpers.UseGridPatches ? new GridPatch(xRes, yRes, zRes, this) : new Patch(xRes, yRes, zRes, this);
+	  
+	  Profiler.stop(Profiler.PatchBuild, t);
+	  return p;
+  }
+  
+  //Add a level of detail, either from the scaffold's patch cache, immediately, or by requesting it from the scaffold's 
+  //background builder.  Any existing child patch is replaced
+  private void RequestLOD(boolean leaf, float priority)
+  {
+	  Scaffold scaffold = _rootCell._scaffold;
+	  
+	  //A patch is already being built in the background, so there is nothing more to do until it is attached
+	  if (isLODPending()) return;
+	  
+	  //Restore the patch from the cache if it was built before.  Grid patches are only usable as leaves
+	  if (scaffold != null)
 	  {
-		  PVector rootPos = Helpers.root(this)._pos;
-		  _maxDistance = PVector.dist(PVector.add(getAbsolutePosition(), _bVertex[0]), rootPos); //start with first vertex
+		  Patch cached = scaffold.getPatchCache().take(getPatchKey(), leaf);
 		  
-		  //iterate through remainder finding maximum
-		  for (int i = 1; i < _bVertex.length; i++)
+		  if (cached != null)
+		  {
+			  if (hasChildPatch()) 
+				  ClearChildPatch();
+			  
+			  setChildPatch(cached);
+			  return;
+		  }
+	  }
+	  
+	  //When built in the background the existing patch is kept until its replacement is ready
+	  if (Helpers.AsyncLOD && scaffold != null)
+	  {
+		  scaffold.getScheduler().request(this, leaf, priority);
+		  return;
+	  }
+	  
+	  if (hasChildPatch()) 
+		  ClearChildPatch();
+	  
+	  AddLOD(leaf);
+  }
+  
+  /**
+   * Set the scaffold this cell is the root of.  This gives all cells in the scaffold access to its shared services
+   * @param scaffold the scaffold
+   */
+  public void setScaffold(Scaffold scaffold)
+  {
+	  _scaffold = scaffold;
+  }
+  
+  /**
+   * Get a deterministic address for the cell made up of its lattice position within each patch from the root cell 
+   * downwards.  Cells in the same position of the same scaffold always have the same address.
+   * @return The address, or an empty string for the root cell
+   */
+  public String getAddress()
+  {
+	  if (_address == null)
+	  {
+		  if (_parentCell == null)
+			  _address = "";
+		  else
 		  {
-			  _maxDistance = Math.max(_maxDistance, PVector.dist(PVector.add(getAbsolutePosition(), _bVertex[i]), rootPos));
+			  //Derive the lattice position within the parent patch from the cell position
+			  PVector p = _parentCell.getBounds();
+			  int x = Math.round((_pos.x + p.x / 2) / _size.x - 0.5f);
+			  int y = Math.round((_pos.y + p.y / 2) / _size.y - 0.5f);
+			  int z = Math.round((_pos.z + p.z / 2) / _size.z - 0.5f);
+			  
+			  _address = _parentCell.getAddress() + "/" + x + "," + y + "," + z;
 		  }
 	  }
 	  
+	  return _address;
+  }
+  
+  //Key identifying this cell's child patch in the patch cache.  Includes the level and the current patch resolution, as
+  //patches of different resolutions are not interchangeable
+  private String getPatchKey()
+  {
+	  return _level + ":" + getAddress() + "#" + Helpers.PatchResolution;
+  }
+  
+  /**
+   * Check if a child patch has been requested from the background builder and not yet attached
+   * @return true if a request is waiting
+   */
+  public boolean isLODPending()
+  {
+	  return _lodPending;
+  }
+  
+  /**
+   * Record whether a child patch has been requested from the background builder
+   * @param pending true when a request is made, false when it is attached or discarded
+   */
+  public void setLODPending(boolean pending)
+  {
+	  _lodPending = pending;
+  }
+  
+  /**
+   * Check if this cell is still part of its scaffold, rather than below a patch that has since been cleared
+   * @return true if every patch between this cell and the root is still attached
+   */
+  public boolean isAttached()
+  {
+	  Cell c = this;
+	  
+	  while (c._parentCell != null)
+	  {
+		  if (c._parentCell._childPatch != c._parentPatch) return false;
+		  c = c._parentCell;
+	  }
+	  
+	  return true;
+  }
+  
+  /**
+   * Get the maximum distance of the cell from the centre of the root cell
+   * @return
+   */
+  public float getMaxDist()
+  {
+	  if (_maxDistance < 0)
+		  CalculateRootDistances();
+	  
 	  return _maxDistance;
   }
   
@@ -328,18 +589,39 @@ public class Cell
   public float getMinDist()
   {
 	  if (_minDistance < 0)
+		  CalculateRootDistances();
+	  
+	  return _minDistance;
+  }
+  
+  //Find the distances of the closest and furthest bounding vertices from the root cell's origin
+  private void CalculateRootDistances()
+  {
+	  PVector abs = getAbsolutePosition();
+	  PVector root = getRootPosition();
+	  
+	  //Offset of the cell centre from the root origin
+	  float ox = abs.x - root.x;
+	  float oy = abs.y - root.y;
+	  float oz = abs.z - root.z;
+	  
+	  float min = Float.MAX_VALUE;
+	  float max = 0;
+	  
+	  for (DensityVertex v : _bVertex)
 	  {
-		  PVector rootPos = Helpers.root(this)._pos;
-		  _minDistance = PVector.dist(PVector.add(getAbsolutePosition(), _bVertex[0]), rootPos); //start with first vertex
+		  float dx = ox + v.x;
+		  float dy = oy + v.y;
+		  float dz = oz + v.z;
+		  float d = dx * dx + dy * dy + dz * dz;
 		  
-		  //itereate through remainder finding min
-		  for (int i = 1; i < _bVertex.length; i++)
-		  {
-			  _minDistance = Math.min(_minDistance, PVector.dist(PVector.add(getAbsolutePosition(), _bVertex[i]), rootPos));
-		  }
+		  min = Math.min(min, d);
+		  max = Math.max(max, d);
 	  }
 	  
-	  return _minDistance;
+	  //Only take the square root of the two results
+	  _minDistance = (float)Math.sqrt(min);
+	  _maxDistance = (float)Math.sqrt(max);
   }
   
   /**
@@ -358,6 +640,18 @@ public class Cell
    */
   public Patch setChildPatch(Patch child)
   {
+	//Cells are counted when they join the scene rather than when built, as background builds may be discarded
+	if (child != null)
+	{
+		Helpers.CellCount.addAndGet(child.CellCount());
+		Helpers.PatchCount.incrementAndGet();
+		Helpers.LODAdds ++;
+		_childPatchTime = System.nanoTime();
+	}
+	
+	//This cell no longer draws as a leaf of its parent patch
+	if (_parentPatch != null) _parentPatch.invalidateShape();
+	
     return _childPatch = child;
   }
   
@@ -375,8 +669,22 @@ public class Cell
    */
   public void ClearChildPatch()
   {
-	  Helpers.CellCount -= getChildPatch().CellCount();
-	  Helpers.PatchCount --;
+	  Scaffold scaffold = _rootCell._scaffold;
+	  
+	  //Keep the patch in the scaffold's cache so it can be restored if needed again.  Detail below it is cleared
+	  //first so the cache only holds a single level
+	  if (scaffold != null)
+	  {
+		  getChildPatch().ClearChildPatches();
+		  scaffold.getPatchCache().put(getPatchKey(), getChildPatch());
+	  }
+	  
+	  Helpers.CellCount.addAndGet(-getChildPatch().CellCount());
+	  Helpers.PatchCount.decrementAndGet();
+	  Helpers.LODClears ++;
+	  
+	  //This cell now draws as a leaf of its parent patch
+	  if (_parentPatch != null) _parentPatch.invalidateShape();
 	  
       _childPatch = null;
   }
@@ -387,7 +695,85 @@ public class Cell
    */
   public float CamDistance()
   {
-	  return PVector.dist(getAbsolutePosition(), Helpers.Cam.getCam());
+	  return PVector.dist(getAbsolutePosition(), getViewPosition());
+  }
+  
+  /**
+   * Get the position levels of detail are calculated from.  This is the scaffold's snapshot of its viewpoint taken at the
+   * start of the current update, or the camera position if the cell does not belong to a scaffold
+   * @return the position in absolute world coordinate space.  This is shared and must not be modified
+   */
+  public PVector getViewPosition()
+  {
+	  Scaffold scaffold = _rootCell._scaffold;
+	  return scaffold != null ? scaffold.getViewPosition() : Helpers.Cam.getCam();
+  }
+  
+  /**
+   * Check whether the cell may be visible from the scaffold's viewpoint.  Cells that do not belong to a scaffold are always
+   * treated as visible, as they may be drawn with transforms of their own.
+   * @return false if the cell's bounds lie entirely outside the view frustum or beyond the horizon
+   */
+  public boolean isVisible()
+  {
+	  return !isBeyondHorizon() && isInFrustum();
+  }
+  
+  /**
+   * Check whether the cell is hidden behind the horizon of the planet, using the solid sphere reported by the density field
+   * as the occluder.
+   * The test is conservative: the cell is only reported as hidden if every point of its bounding sphere is further from
+   * the viewpoint than the furthest distance at which a point of its altitude can be seen over the horizon.
+   * @return true if the cell cannot be seen from the scaffold's viewpoint
+   */
+  public boolean isBeyondHorizon()
+  {
+	  return isBeyondHorizon(CamDistance());
+  }
+  
+  //Horizon test for a cell at a known distance from the viewpoint
+  private boolean isBeyondHorizon(float distance)
+  {
+	  Scaffold scaffold = _rootCell._scaffold;
+	  
+	  //There is no horizon when the viewpoint is inside the occluder, or the density field has none
+	  if (!Helpers.HorizonCulling || scaffold == null || scaffold.getHorizonDistance() < 0) 
+		  return false;
+	  
+	  //Distance from the highest point of the cell to the horizon
+	  float radius = scaffold.getOccluderRadius();
+	  float r = _size.mag() / 2;
+	  float cellAltitude = PVector.dist(getAbsolutePosition(), scaffold.getOccluderCentre()) + r;
+	  float cellHorizon = cellAltitude > radius ? (float)Math.sqrt(cellAltitude * cellAltitude - radius * radius) : 0;
+	  
+	  return distance - r > scaffold.getHorizonDistance() + cellHorizon;
+  }
+  
+  //Check whether the cell's bounds are at least partly inside the view frustum
+  private boolean isInFrustum()
+  {
+	  Scaffold scaffold = _rootCell._scaffold;
+	  
+	  if (!Helpers.FrustumCulling || scaffold == null || scaffold.getViewpoint() == null) 
+		  return true;
+	  
+	  Frustum f = scaffold.getViewpoint().getFrustum();
+	  if (f == null) 
+		  return true;
+	  
+	  PVector p = getAbsolutePosition();
+	  return f.intersects(p.x, p.y, p.z, _size.x / 2, _size.y / 2, _size.z / 2);
+  }
+  
+  /**
+   * Get the viewpoint levels of detail are calculated from.  This is the viewpoint of the scaffold the cell belongs to, or 
+   * the camera if it does not belong to a scaffold
+   * @return the viewpoint
+   */
+  public Viewpoint getViewpoint()
+  {
+	  Scaffold scaffold = _rootCell._scaffold;
+	  return scaffold != null ? scaffold.getViewpoint() : Helpers.Cam;
   }
   
   /**
@@ -410,21 +796,11 @@ public class Cell
   
   /**
    * Returns the centre point position of the cell in the world coordinate system
-   * @return
+   * @return The cached world position.  This is shared and must not be modified
    */
   public PVector getAbsolutePosition()
   {
-	  PVector p = new PVector(0,0,0); 
-	  
-	  //Get references to all cells in the hierarchy
-	  Cell[] cells = Helpers.getCellHierarchy(this);
-	  
-	  for(Cell c : cells)
-	  {
-		  p = p.add(c.getRelativePosition());
-	  }
-	  
-	  return p;
+	  return _absPos;
   }
   
   /**
@@ -448,49 +824,23 @@ public class Cell
   	for (int i = 0; i < _bVertex.length; i++)
   	{
   		if (Helpers.Density(_bVertex[i], this) <= Helpers.DensityThreshold)
-  			rtn += (int)Math.pow(2, i);
+  			rtn |= 1 << i;
   	}
   
   	return rtn;
   }
   
-  private void GroupVertices(short group)
+  //Assign each vertex inside the surface to its group of connected vertices, using the precomputed groups for the
+  //cell's vertex pattern.  Groups are numbered from the group containing the lowest numbered vertex
+  private void GroupVertices(int[] groups)
   {
-	  short groupID = group;
-	  ArrayList<DensityVertex> verts = new ArrayList<DensityVertex>();
-	  
-	  //Create collection of vertices that exist inside the surface 
-	  for (DensityVertex v : _bVertex)
-	  {
-		  //If the density is greater than the density threshold then it is inside the surface
-		  if(v.getDensity() > Helpers.DensityThreshold)
-			  verts.add(v);
-	  }
-	  
-	  //If no vertices are identified then there is nothing to group so no need to continue.
-	  if ( verts.size() ==0 ) return;
-	  
-	  //Order vertices - not needed if collection can be sorted prior to method call.  when using 
-	  //recursive calls, this adds a additional sort operation that is not required.
-	  Collections.sort(verts);
-	 
-	  //Get first
-	  DensityVertex f = verts.get(0);
-	  
-	  //Group vertex and Adjacent Vertices
-	  if (f.getGroup() == -1)
+	  for (short g = 0; g < groups.length; g++)
 	  {
-		  GroupAdjacentVertices(f.getId(), groupID++, verts);
+		  for (int v : Bits.Indices(groups[g]))
+			  _bVertex[v].setGroup(g);
 	  }
 	  
-	  //Order vertices 
-	  Collections.sort(verts);
-	  
-	  
-	  if (verts.get(0).getGroup() == -1)
-	  {
-		  GroupVertices(groupID++);
-	  }
+	  _vertexGroupCount = (short)groups.length;
   }
   
   /**
@@ -521,30 +871,49 @@ public class Cell
 
   }
   
-  private void GroupAdjacentVertices(int root, short groupID, ArrayList<DensityVertex> verts)
-  {  
-	  //get adjacent vertices for the root ID
-	  int adjacencies[] = Surface.getAdjacentVertiexIDs(root);
+  //Find the point where the surface crosses each bisected edge by interpolating the densities of the vertices it joins.  
+  //The normal at the point is interpolated from the vertex gradients in the same way, or if they are not known every 
+  //point is given the normal from the gradient across the cell
+  private void buildSurfaceVertex(float[] vertexGradient)
+  {
+	  _sVertex = new PVector[12];
+	  _sNormal = new PVector[12];
+	  
+	  float[] g = vertexGradient == null ? CellGradient() : vertexGradient;
 	  
-	  //set current vertex as group member
-	  for (DensityVertex v : verts)
+	  for (int e : Bits.Indices(Surface.getBisectedEdges((short)getIdentifier())))
 	  {
-		  if (v.getId() == root)
-			  v.setGroup(groupID); //Set current vertex as group member
-	  }
+		  int[] ends = Surface.getEdgeVertices(e);
+		  DensityVertex a = _bVertex[ends[0]];
+		  DensityVertex b = _bVertex[ends[1]];
+		  
+		  float t = Helpers.Crossing(a.getDensity(), b.getDensity());
+		  _sVertex[e] = new PVector(a.x + (b.x - a.x) * t, a.y + (b.y - a.y) * t, a.z + (b.z - a.z) * t);
 		  
-	  //Process adjacent vertices if ungrouped
-	  for (int i = 0; i < adjacencies.length; i++)
+		  //Density increases into the surface, so the outward normal is against the gradient
+		  int ga = vertexGradient == null ? 0 : ends[0] * 3;
+		  int gb = vertexGradient == null ? 0 : ends[1] * 3;
+		  _sNormal[e] = new PVector(
+				  -(g[ga] + (g[gb] - g[ga]) * t), 
+				  -(g[ga + 1] + (g[gb + 1] - g[ga + 1]) * t), 
+				  -(g[ga + 2] + (g[gb + 2] - g[ga + 2]) * t)).normalize();
+	  }
+  }
+  
+  //Average density gradient across the cell, from the difference in density between opposite faces
+  private float[] CellGradient()
+  {
+	  float[] ret = new float[3];
+	  
+	  for (DensityVertex v : _bVertex)
 	  {
-		  for (DensityVertex v : verts)
-		  {
-			  //if an adjacent vertex is not grouped, then group it
-			  if (v.getGroup() == -1 && v.getId() == adjacencies[i])
-			  {
-				  GroupAdjacentVertices(adjacencies[i], groupID, verts);
-			  }
-		  }
+		  float d = v.getDensity();
+		  ret[0] += Math.signum(v.x) * d / (4 * _size.x);
+		  ret[1] += Math.signum(v.y) * d / (4 * _size.y);
+		  ret[2] += Math.signum(v.z) * d / (4 * _size.z);
 	  }
+	  
+	  return ret;
   }
   
   /**
@@ -596,28 +965,28 @@ public class Cell
 	  if (Vertices.length == 0)
 		  return new PVector[0];
 		  
-	  short bm = 0;
+	  int bm = 0;
 	  
 	  //Create a bit mask for the vertex group by identifying the position of each included vertex
 	  for (DensityVertex v : Vertices)
-		  bm += Math.pow(2, v.getId());
+		  bm |= 1 << v.getId();
 
-	  //Find the bisected edges surrounding this vertex group
-	  int edges = Surface.getBisectedEdges(bm);
+	  return buildTriangleStrip(bm);
+  }
+  
+  //Get the surface crossing point of each bisected edge surrounding a vertex group, in drawing order
+  private PVector[] buildTriangleStrip(int groupPattern)
+  {
+	  //Look up the bisected edges surrounding this vertex group in drawing order
+	  int[] loop = Surface.getEdgeLoop(groupPattern);
 	  
-	  //Get the centre point of each bisected edge in the correct drawing order
-	  //ToDo: dorawing order is not correct at the moment
-	  ArrayList<DensityVertex> DrawingPoint = new ArrayList<DensityVertex>();
-	  for (int i : ShortestLoop(Surface.BitsToIntegers(edges)))
+	  PVector[] DrawingPoint = new PVector[loop.length];
+	  for (int i = 0; i < loop.length; i++)
 	  {
-		  //If the bits match the the edge is adjacent, bisected and is the the next one up
-		  if (((int)Math.pow(2, i) & edges) == (int)Math.pow(2, i))
-		  {
-			  DrawingPoint.add(_eVertex[i]);
-		  }
+		  DrawingPoint[i] = _sVertex[loop[i]];
 	  }
 	  
-	  return DrawingPoint.toArray(new PVector[DrawingPoint.size()]);
+	  return DrawingPoint;
   }
   
   /**
@@ -634,7 +1003,7 @@ public class Cell
   			ret += _edgeDistances[edges[i]][edges[i+1]];
   		
   		//Add the distance from the last node back to the start
-  		ret += _edgeDistances[edges.length][0];
+  		ret += _edgeDistances[edges[edges.length - 1]][edges[0]];
   		
   		return ret;
   	}
@@ -649,11 +1018,19 @@ public class Cell
 		//Create a matrix of the distances between specified edge vertices
 		float[][] distances = new float[12][12];
 		
+		//The matrix is symmetric with a zero diagonal, so each pair is only measured once
 		for (int x = 0; x < edges.length; x++)
 		{
-			for (int y = 0; y < edges.length; y++)
+			PVector a = _eVertex[edges[x]];
+			
+			for (int y = x + 1; y < edges.length; y++)
 			{
-				distances[edges[x]][edges[y]] = PVector.dist(_eVertex[edges[x]], _eVertex[edges[y]]);
+				PVector b = _eVertex[edges[y]];
+				float dx = a.x - b.x;
+				float dy = a.y - b.y;
+				float dz = a.z - b.z;
+				
+				distances[edges[x]][edges[y]] = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
 				distances[edges[y]][edges[x]] = distances[edges[x]][edges[y]];
 			}
 		}
@@ -662,7 +1039,8 @@ public class Cell
 	}
 	
 	/**
-	 * Find the shortest complete edge loop for the specified edges
+	 * Find the shortest complete edge loop for the specified edges by testing every permutation.  Cell construction uses
+	 * the precomputed Surface.getEdgeLoop table instead, so this is only retained for validating that table.
 	 * @param edges
 	 * @return
 	 */
@@ -671,6 +1049,10 @@ public class Cell
 		if (edges.length == 0) 
 			return edges;
 		
+		//Distances are only needed for the permutation search so build them on first use
+		if (_edgeDistances == null)
+			_edgeDistances = CalculateEdgeVertexDistances(Bits.Indices(Surface.getBisectedEdges((short)getIdentifier())));
+		
 		ArrayList<Integer[]> opts = Helpers.permute(edges);
 		float[] dist = new float[opts.size()];
 		
@@ -709,34 +1091,96 @@ public class Cell
 	  //Add LOD management based of cell distance from camera for cells below root level
 	  if (_level != 0)
 	  {
+		  float distance = CamDistance();
+		  boolean beyondHorizon = isBeyondHorizon(distance);
+		  boolean visible = !beyondHorizon && isInFrustum();
+		  
+		  //Cells outside the view are still refined so detail is ready when they come into view, but after those in view
+		  float priority = visible ? distance : distance * Helpers.CulledLODPriority;
+		  
+		  //Use separate distance bands for adding and removing detail so a camera hovering near a band boundary does 
+		  //not repeatedly build and discard the same patch.  Detail is added as if the camera were further away and 
+		  //removed as if it were closer
+		  int refineLOD = Helpers.LODCaclulator(distance * (1 + Helpers.LODHysteresis));
+		  int coarsenLOD = Helpers.LODCaclulator(distance * (1 - Helpers.LODHysteresis));
+		  
+		  //Cells hidden by the planet need no further detail, and detail they have is removed
+		  if (beyondHorizon)
+		  {
+			  refineLOD = _level;
+			  coarsenLOD = _level;
+		  }
+		  
+		  //If the child patch cannot be refined but further detail is required below it then replace it
+		  if(refineLOD > _level + 1 && hasChildPatch() && !getChildPatch().canRefine())
+		  {
+			  long t = Profiler.start();
+			  RequestLOD(false, priority);
+			  Profiler.stop(Profiler.LODAdd, t);
+		  }
+		  
 		  //If there is no child patch and the current LOD is below the required definition then add
-		  if(Helpers.LODCaclulator(CamDistance()) > _level && !hasChildPatch())
+		  if(refineLOD > _level && !hasChildPatch())
 		  {
-			  AddLOD();
+			  long t = Profiler.start();
+			  RequestLOD(refineLOD == _level + 1, priority);
+			  Profiler.stop(Profiler.LODAdd, t);
 		  }
 
-		  //If there are child patches, but this is the required level then remove children
-		  if(Helpers.LODCaclulator(CamDistance()) == _level && hasChildPatch())
+		  //If there are child patches, but this is the required level then remove children once they have been 
+		  //in place for the minimum residence time
+		  if(coarsenLOD == _level && hasChildPatch() && 
+				  System.nanoTime() - _childPatchTime >= Helpers.LODMinResidence * 1000000)
 		  {
+			  long t = Profiler.start();
 			  ClearChildPatch();
+			  Profiler.stop(Profiler.LODClear, t);
 		  }  
 	  }
 	  
-	  //Update each vertex
-	  for(DensityVertex v : _bVertex)
-		  v.update();
-	  
 	  //Update each child patch
 	  if (hasChildPatch())
 		  getChildPatch().update();
   }
   
+  /**
+   * Add the surface geometry of this cell, or of its levels of detail if it has any, to a sink as triangles.  The triangles 
+   * are listed at construction, and the cell position is added to the vertices
+   * @param s The sink receiving the triangles
+   * @param x X offset added to each vertex, normally the absolute position of the parent cell
+   * @param y Y offset added to each vertex
+   * @param z Z offset added to each vertex
+   */
+  public void addTriangles(TriangleSink s, float x, float y, float z)
+  {
+	  x += _pos.x;
+	  y += _pos.y;
+	  z += _pos.z;
+	  
+	  if (hasChildPatch())
+	  {
+		  getChildPatch().addTriangles(s, x, y, z);
+		  return;
+	  }
+	  
+	  for (int i = 0; i < _triangles.length; i++)
+	  {
+		  PVector v = _triangles[i];
+		  PVector n = _triangleNormals[i];
+		  s.normal(n.x, n.y, n.z);
+		  s.vertex(x + v.x, y + v.y, z + v.z);
+	  }
+  }
+  
   /**
    * Logic for execution of the draw cycle
    * @param P
    */
   public void draw(PApplet P)
   {
+	//Skip cells that cannot appear on screen, along with all their levels of detail
+	if (!isVisible()) return;
+	
     P.pushMatrix();
     P.translate(_pos.x, _pos.y, _pos.z);   
     
@@ -806,17 +1250,15 @@ public class Cell
 	    	
 	    	P.fill(255);
 	    	
-	    	for (int i = 0; i < _triangleVertex.length; i++)
+	    	P.beginShape(PConstants.TRIANGLES);
+	    	for (int i = 0; i < _triangles.length; i++)
 	    	{
-	    		
-	    		P.beginShape();
-	    		for (int j = 0; j < _triangleVertex[i].length; j++)
-	    		{
-	    			PVector v = _triangleVertex[i][j];
-	    			P.vertex(v.x, v.y, v.z);
-	    		}
-	    		P.endShape(processing.core.PConstants.CLOSE);
+	    		PVector v = _triangles[i];
+	    		PVector n = _triangleNormals[i];
+	    		P.normal(n.x, n.y, n.z);
+	    		P.vertex(v.x, v.y, v.z);
 	    	}
+	    	P.endShape();
 	    	
 	    }
     }
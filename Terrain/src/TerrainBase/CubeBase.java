@@ -46,9 +46,6 @@ public class CubeBase extends PApplet{
 		cubes = new Cell[256];
 		for (int i = 0; i < 256; i++)
 			cubes[i] = new Cell(i);
-		
-		//Initalise the lookup tables for surface extraction
-		Surface.BuildEdgeBisectionTable();
 				
 	}
 	
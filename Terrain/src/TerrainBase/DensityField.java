@@ -0,0 +1,58 @@
+package TerrainBase;
+
+import processing.core.PVector;
+
+/**
+ * A density field defines the surface being extracted.  Points with a density above Helpers.DensityThreshold lie inside 
+ * the surface and points below lie outside.  A scaffold is given a density field at construction which is shared by all of 
+ * its cells.  
+ * @author Philip Larby
+ *
+ */
+public interface DensityField 
+{
+	/**
+	 * Get the density at a single point
+	 * @param x X position in world coordinates
+	 * @param y Y position in world coordinates
+	 * @param z Z position in world coordinates
+	 * @return the density at the point
+	 */
+	float density(float x, float y, float z);
+	
+	/**
+	 * Get the density at a block of points in a single call.  Points are supplied as separate coordinate arrays so 
+	 * implementations can evaluate them in a tight loop.
+	 * @param x X positions in world coordinates
+	 * @param y Y positions in world coordinates
+	 * @param z Z positions in world coordinates
+	 * @param out Receives the density at each point
+	 * @param count The number of points to evaluate from the start of each array
+	 */
+	void density(float[] x, float[] y, float[] z, float[] out, int count);
+	
+	/**
+	 * Get a coarse density for a whole cell, used to discard cells that are not near the surface.  The result must be above
+	 * Helpers.DensityThreshold for any cell the surface may pass through.
+	 * @param x X position of the cell centre in world coordinates
+	 * @param y Y position of the cell centre in world coordinates
+	 * @param z Z position of the cell centre in world coordinates
+	 * @param xBounds Size of the cell in x dimension
+	 * @param yBounds Size of the cell in y dimension
+	 * @param zBounds Size of the cell in z dimension
+	 * @return the density for the cell
+	 */
+	float cellDensity(float x, float y, float z, float xBounds, float yBounds, float zBounds);
+	
+	/**
+	 * Get a sphere that lies entirely inside the surface, used as the occluder for horizon culling.  Anything the sphere 
+	 * hides from the viewpoint is certainly hidden by the surface too.  By default a field has no such sphere, and no 
+	 * geometry is culled against the horizon.
+	 * @param centre Receives the centre of the sphere in world coordinates
+	 * @return the radius of the sphere, or 0 if the field has no region known to be solid
+	 */
+	default float solidSphere(PVector centre)
+	{
+		return 0;
+	}
+}
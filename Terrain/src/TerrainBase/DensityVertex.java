@@ -14,11 +14,11 @@ import processing.core.PVector;
  */
 public class DensityVertex extends PVector implements Comparable<DensityVertex>
 {
-	private float _density = -1;
-	private float _camDistance = -1; //Distance from camera to vertex is used for ordering
+	private float _density = Float.NaN; //Not a number until the density is evaluated
 	private short _group = -1; 		 //By assigning vertices into adjacency groups it is easier to calculate triangle strips 
 	private short _vertexID; 		 //Identifer of the vertex - refer to figure in documentation
 	private Cell _cell;
+	private PVector _absPos;		 //Cached position in world coordinates
 
 	/**
 	 * Constructs a new density vertex object
@@ -37,15 +37,16 @@ public class DensityVertex extends PVector implements Comparable<DensityVertex>
 	
 	/**
 	 * Get the position of the vertex as absoloute world coordinates 
-	 * @return the offset of the vertex from the world origin
+	 * @return the offset of the vertex from the world origin.  This is shared and must not be modified
 	 */
 	public PVector getAbsoloutePostion()
 	{
-		//Add the relative position of the vertex to the absoloute position of it's parent cell 
-		PVector ret = _cell.getAbsolutePosition();
-		ret.add(this);
+		//Add the relative position of the vertex to the absoloute position of it's parent cell.  The result is cached
+		//until the relative position changes
+		if (_absPos == null)
+			_absPos = PVector.add(_cell.getAbsolutePosition(), this);
 		
-		return ret;
+		return _absPos;
 	}
 	
 	/**
@@ -73,7 +74,7 @@ public class DensityVertex extends PVector implements Comparable<DensityVertex>
 	public float getDensity()
 	{
 		//lazy load density as needed to reduce overhead through multiple calls 
-		if (_density == -1)
+		if (Float.isNaN(_density))
 			_density = Helpers.Density(this, _cell);
 		
 		return _density;
@@ -95,7 +96,8 @@ public class DensityVertex extends PVector implements Comparable<DensityVertex>
 	public void x (float x)
 	{
 		super.x = x;
-		_density = -1;
+		_density = Float.NaN;
+		_absPos = null;
 	}
 	
 	/**
@@ -105,7 +107,8 @@ public class DensityVertex extends PVector implements Comparable<DensityVertex>
 	public void y (float y)
 	{
 		super.y = y;
-		_density = -1;
+		_density = Float.NaN;
+		_absPos = null;
 	}
 	
 	/**
@@ -115,23 +118,10 @@ public class DensityVertex extends PVector implements Comparable<DensityVertex>
 	public void z (float z)
 	{
 		super.z = z;
-		_density = -1;
+		_density = Float.NaN;
+		_absPos = null;
 	}
 	
-	/**
-	 * execute update cycle logic
-	 */
-	public void update()
-	{
-		updateCamDistance(Helpers.Cam.getCam());
-	}
-	
-	//Update the measure of the vertex from the position of the camera
-	private void updateCamDistance(PVector CameraPosition)
-	{
-		_camDistance = PVector.dist(CameraPosition, getAbsoloutePostion());
-	}
-
 	/**
 	 * Comparable interface member.  Facilitates sorting vertices by group order. 
 	 */
@@ -149,7 +139,7 @@ public class DensityVertex extends PVector implements Comparable<DensityVertex>
 	 * Set the density value for the vertex
 	 * @param Density The density value to be recorded
 	 */
-	public void setDensity(int Density) {
+	public void setDensity(float Density) {
 		_density = Density;
 		
 	}
@@ -0,0 +1,65 @@
+package TerrainBase;
+
+import processing.core.PVector;
+
+/**
+ * A viewpoint at a fixed position, used to generate a scaffold without a camera or display
+ * @author Philip Larby
+ *
+ */
+public class FixedViewpoint implements Viewpoint
+{
+	private PVector _pos;	//Position of the viewpoint in absolute world coordinate space
+
+	/**
+	 * Construct a viewpoint at the specified position
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 */
+	public FixedViewpoint(float x, float y, float z)
+	{
+		_pos = new PVector(x, y, z);
+	}
+
+	/**
+	 * Get the position of the viewpoint
+	 * @return the position of the viewpoint in absolute world coordinate space
+	 */
+	@Override
+	public PVector getCam()
+	{
+		return _pos.copy();
+	}
+
+	/**
+	 * Copy the position of the viewpoint
+	 * @param out Receives the position of the viewpoint in absolute world coordinate space
+	 */
+	@Override
+	public void getCam(PVector out)
+	{
+		out.set(_pos);
+	}
+
+	/**
+	 * A fixed viewpoint has no view direction so everything is treated as visible
+	 * @return null
+	 */
+	@Override
+	public Frustum getFrustum()
+	{
+		return null;
+	}
+
+	/**
+	 * Move the viewpoint
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 */
+	public void setPosition(float x, float y, float z)
+	{
+		_pos.set(x, y, z);
+	}
+}
@@ -0,0 +1,60 @@
+package TerrainBase;
+
+import processing.core.PMatrix3D;
+
+/**
+ * The volume of space visible to a camera, bounded by six planes extracted from the combined projection and model view
+ * matrix.  Used to skip cells that cannot appear on screen.
+ * @author Philip Larby
+ *
+ */
+public class Frustum
+{
+	//Left, right, bottom, top, near and far planes.  Each plane is a, b, c and d of ax + by + cz + d >= 0 for points inside
+	private float[][] _planes = new float[6][4];
+
+	/**
+	 * Extract the frustum planes from a matrix transforming world coordinates to clip coordinates
+	 * @param m The projection matrix multiplied by the model view matrix
+	 */
+	public void set(PMatrix3D m)
+	{
+		setPlane(0, m.m30 + m.m00, m.m31 + m.m01, m.m32 + m.m02, m.m33 + m.m03);
+		setPlane(1, m.m30 - m.m00, m.m31 - m.m01, m.m32 - m.m02, m.m33 - m.m03);
+		setPlane(2, m.m30 + m.m10, m.m31 + m.m11, m.m32 + m.m12, m.m33 + m.m13);
+		setPlane(3, m.m30 - m.m10, m.m31 - m.m11, m.m32 - m.m12, m.m33 - m.m13);
+		setPlane(4, m.m30 + m.m20, m.m31 + m.m21, m.m32 + m.m22, m.m33 + m.m23);
+		setPlane(5, m.m30 - m.m20, m.m31 - m.m21, m.m32 - m.m22, m.m33 - m.m23);
+	}
+
+	/**
+	 * Check whether an axis aligned box is at least partly inside the frustum.  The test is conservative, so a box near a
+	 * corner of the frustum may be reported as inside when it is not.
+	 * @param x X position of the box centre
+	 * @param y Y position of the box centre
+	 * @param z Z position of the box centre
+	 * @param hx Half the size of the box in X
+	 * @param hy Half the size of the box in Y
+	 * @param hz Half the size of the box in Z
+	 * @return false if the box is entirely outside any plane
+	 */
+	public boolean intersects(float x, float y, float z, float hx, float hy, float hz)
+	{
+		for (float[] p : _planes)
+		{
+			//Distance of the box corner furthest along the plane normal
+			float d = p[0] * x + p[1] * y + p[2] * z + p[3] + Math.abs(p[0]) * hx + Math.abs(p[1]) * hy + Math.abs(p[2]) * hz;
+			if (d < 0) return false;
+		}
+
+		return true;
+	}
+
+	private void setPlane(int i, float a, float b, float c, float d)
+	{
+		_planes[i][0] = a;
+		_planes[i][1] = b;
+		_planes[i][2] = c;
+		_planes[i][3] = d;
+	}
+}
@@ -0,0 +1,316 @@
+package TerrainBase;
+
+import java.util.Arrays;
+
+import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PVector;
+
+/**
+ * A grid patch subdivides a parent cell in the same way as a Patch, but holds its cells as flat arrays of lattice densities,
+ * vertex patterns and edge intersections rather than as Cell objects.  Each lattice point and lattice edge is stored once and
+ * shared by all the cells that touch it.  As there are no Cell objects to refine, a grid patch is only used for the final level
+ * of detail and is replaced by a Patch if further detail is needed.
+ * @author Philip Larby
+ *
+ */
+public class GridPatch extends Patch
+{
+	private int _xRes, _yRes, _zRes;	//Number of cells in each dimension
+	private PVector _cellSize;			//Size of each cell
+	private float[] _density;			//Density at each lattice point
+	private int[] _pattern;				//Pattern of vertices inside the surface for each cell, as per Cell.getIdentifier
+	private float[] _edgeVertex;		//Surface intersection point of each lattice edge.  3 coordinates for each of the 3 edges leaving a lattice point
+	private float[] _edgeNormal;		//Outward surface normal at each point in _edgeVertex, laid out in the same way
+	private int _cellCount;				//Number of cells intersected by the surface
+
+	/**
+	 * Construct a grid patch that fully subdivides a parent cell with specified x, y, and z cell resolution
+	 * @param xDef X resolution
+	 * @param yDef Y resolution
+	 * @param zDef Z resolution
+	 * @param parent The parent cell being subdivided
+	 */
+	public GridPatch(int xDef, int yDef, int zDef, Cell parent)
+	{
+		super(parent);
+
+		_xRes = xDef;
+		_yRes = yDef;
+		_zRes = zDef;
+
+		PVector dim = parent.getBounds();
+		_cellSize = new PVector(dim.x / xDef, dim.y / yDef, dim.z / zDef);
+
+		//Sample the density field and its gradient once at each lattice point
+		float[] gradient = new float[LatticeSize(xDef, yDef, zDef) * 3];
+		_density = SampleLattice(xDef, yDef, zDef, gradient);
+		_pattern = new int[xDef * yDef * zDef];
+		_edgeVertex = new float[_density.length * 9];
+		_edgeNormal = new float[_density.length * 9];
+
+		//Find the surface intersection of each lattice edge whose end points lie on different sides of the surface, by
+		//interpolating the densities at either end.  The normal is interpolated from the gradients in the same way
+		for (int x = 0; x <= _xRes; x++)
+			for (int y = 0; y <= _yRes; y++)
+				for (int z = 0; z <= _zRes; z++)
+				{
+					int p = latticeIndex(x, y, z);
+					int q;
+					float t;
+
+					if (x < _xRes && inside(p) != inside(q = latticeIndex(x + 1, y, z)))
+					{
+						t = crossing(p, q);
+						setEdgeVertex(p * 3, latticeX(x) + _cellSize.x * t, latticeY(y), latticeZ(z));
+						setEdgeNormal(p * 3, gradient, p, q, t);
+					}
+
+					if (y < _yRes && inside(p) != inside(q = latticeIndex(x, y + 1, z)))
+					{
+						t = crossing(p, q);
+						setEdgeVertex(p * 3 + 1, latticeX(x), latticeY(y) + _cellSize.y * t, latticeZ(z));
+						setEdgeNormal(p * 3 + 1, gradient, p, q, t);
+					}
+
+					if (z < _zRes && inside(p) != inside(q = latticeIndex(x, y, z + 1)))
+					{
+						t = crossing(p, q);
+						setEdgeVertex(p * 3 + 2, latticeX(x), latticeY(y), latticeZ(z) + _cellSize.z * t);
+						setEdgeNormal(p * 3 + 2, gradient, p, q, t);
+					}
+				}
+
+		//Derive the vertex pattern of each cell from the densities at its corners
+		for (int x = 0; x < _xRes; x++)
+			for (int y = 0; y < _yRes; y++)
+				for (int z = 0; z < _zRes; z++)
+				{
+					int pattern = 0;
+
+					for (int v = 0; v < 8; v++)
+					{
+						int[] o = Surface.getVertexLatticeOffset(v);
+						if (inside(latticeIndex(x + o[0], y + o[1], z + o[2])))
+							pattern |= 1 << v;
+					}
+
+					_pattern[cellIndex(x, y, z)] = pattern;
+
+					//Cells entirely inside or outside the surface have no geometry
+					if (pattern != 0 && pattern != 255)
+						_cellCount++;
+				}
+	}
+
+	/**
+	 * Get the number of cells intersected by the surface.  Cells entirely inside or outside the surface hold no geometry so
+	 * are not counted.
+	 * @return The number of cells
+	 */
+	@Override
+	public int CellCount()
+	{
+		return _cellCount;
+	}
+
+	/**
+	 * Add the number of cells intersected by the surface to the count for the level below the parent cell
+	 * @param levels Cell counts indexed by level.  Levels beyond the end of the array are not counted
+	 */
+	@Override
+	public void CountCells(int[] levels)
+	{
+		int level = getParentCell().getLevel() + 1;
+		if (level < levels.length) levels[level] += _cellCount;
+	}
+	
+	/**
+	 * Grid patches hold no cell objects so cannot be given further levels of detail
+	 * @return false
+	 */
+	@Override
+	public boolean canRefine()
+	{
+		return false;
+	}
+
+	/**
+	 * Execute draw logic
+	 * @param P Reference to a processing PApplet or derived class
+	 */
+	@Override
+	public void draw(PApplet P)
+	{
+		P.pushMatrix();
+
+		Helpers.SmallestCellDiameter = Math.min(_cellSize.x, Helpers.SmallestCellDiameter);
+
+		if (Helpers.DrawCellTriangles && Helpers.RetainedMeshes)
+		{
+			drawShape(P);
+		}
+		else if (Helpers.DrawCellTriangles)
+		{
+			P.strokeWeight(1);
+
+			//Draw wireframe if specified
+			if(Helpers.DrawTriangleMesh)
+				P.stroke(0) ;
+			else
+				P.noStroke();
+
+			P.fill(255);
+
+			//Draw the triangles of every cell as a single list
+			P.beginShape(PConstants.TRIANGLES);
+			for (int x = 0; x < _xRes; x++)
+				for (int y = 0; y < _yRes; y++)
+					for (int z = 0; z < _zRes; z++)
+					{
+						for (int e : Surface.getEdgeTriangles(_pattern[cellIndex(x, y, z)]))
+						{
+							int v = edgeIndex(x, y, z, e) * 3;
+							P.normal(_edgeNormal[v], _edgeNormal[v + 1], _edgeNormal[v + 2]);
+							P.vertex(_edgeVertex[v], _edgeVertex[v + 1], _edgeVertex[v + 2]);
+						}
+					}
+			P.endShape();
+		}
+
+		//Draw patch bounaries
+		if (Helpers.DrawPatchBounds)
+		{
+			PVector dim = getParentCell().getBounds();
+			P.strokeWeight(1);
+			P.noFill();
+			P.stroke(0,255,0);
+			P.box(dim.x, dim.y, dim.z);
+		}
+
+		P.popMatrix();
+	}
+
+	/**
+	 * Add the triangles of every cell to a sink
+	 * @param s The sink receiving the triangles
+	 * @param ox X offset added to each vertex
+	 * @param oy Y offset added to each vertex
+	 * @param oz Z offset added to each vertex
+	 */
+	@Override
+	protected void addLeafTriangles(TriangleSink s, float ox, float oy, float oz)
+	{
+		for (int x = 0; x < _xRes; x++)
+			for (int y = 0; y < _yRes; y++)
+				for (int z = 0; z < _zRes; z++)
+				{
+					for (int e : Surface.getEdgeTriangles(_pattern[cellIndex(x, y, z)]))
+					{
+						int v = edgeIndex(x, y, z, e) * 3;
+						s.normal(_edgeNormal[v], _edgeNormal[v + 1], _edgeNormal[v + 2]);
+						s.vertex(ox + _edgeVertex[v], oy + _edgeVertex[v + 1], oz + _edgeVertex[v + 2]);
+					}
+				}
+	}
+	
+	/**
+	 * Build an indexed mesh of the surface geometry of every cell.  Each lattice edge the surface crosses becomes a single 
+	 * vertex used by every triangle that meets it
+	 * @return the mesh, with vertices relative to the patch centre
+	 */
+	@Override
+	public IndexedMesh buildMesh()
+	{
+		//Mesh vertex assigned to each lattice edge, or -1 if the edge has not been reached yet
+		int[] edgeVertex = new int[_edgeVertex.length / 3];
+		Arrays.fill(edgeVertex, -1);
+
+		IndexedMesh mesh = new IndexedMesh();
+
+		for (int x = 0; x < _xRes; x++)
+			for (int y = 0; y < _yRes; y++)
+				for (int z = 0; z < _zRes; z++)
+				{
+					int[] edges = Surface.getEdgeTriangles(_pattern[cellIndex(x, y, z)]);
+
+					for (int j = 0; j < edges.length; j += 3)
+						mesh.addTriangle(meshVertex(mesh, edgeVertex, edgeIndex(x, y, z, edges[j])),
+								meshVertex(mesh, edgeVertex, edgeIndex(x, y, z, edges[j + 1])),
+								meshVertex(mesh, edgeVertex, edgeIndex(x, y, z, edges[j + 2])));
+				}
+
+		return mesh;
+	}
+
+	//Get the mesh vertex of a lattice edge, adding the edge's crossing point if it is the first time the edge has been reached
+	private int meshVertex(IndexedMesh mesh, int[] edgeVertex, int edge)
+	{
+		if (edgeVertex[edge] == -1)
+		{
+			int v = edge * 3;
+			edgeVertex[edge] = mesh.addVertex(_edgeVertex[v], _edgeVertex[v + 1], _edgeVertex[v + 2],
+					_edgeNormal[v], _edgeNormal[v + 1], _edgeNormal[v + 2]);
+		}
+
+		return edgeVertex[edge];
+	}
+
+	//Index of a lattice point in the density array
+	private int latticeIndex(int x, int y, int z)
+	{
+		return LatticeIndex(x, y, z, _yRes, _zRes);
+	}
+
+	//Index of a cell in the pattern array
+	private int cellIndex(int x, int y, int z)
+	{
+		return (x * _yRes + y) * _zRes + z;
+	}
+
+	//Index of the lattice edge corresponding to an edge of the specified cell
+	private int edgeIndex(int x, int y, int z, int edge)
+	{
+		return EdgeIndex(x, y, z, edge, _yRes, _zRes);
+	}
+
+	//Position of lattice points relative to the patch centre
+	private float latticeX(int x) { return - getParentCell().getBounds().x / 2 + _cellSize.x * x; }
+	private float latticeY(int y) { return - getParentCell().getBounds().y / 2 + _cellSize.y * y; }
+	private float latticeZ(int z) { return - getParentCell().getBounds().z / 2 + _cellSize.z * z; }
+
+	//Is the lattice point inside the surface
+	private boolean inside(int latticeIndex)
+	{
+		return _density[latticeIndex] > Helpers.DensityThreshold;
+	}
+
+	//Fraction of the distance between two lattice points at which the surface crosses
+	private float crossing(int from, int to)
+	{
+		return Helpers.Crossing(_density[from], _density[to]);
+	}
+
+	private void setEdgeVertex(int edge, float x, float y, float z)
+	{
+		_edgeVertex[edge * 3] = x;
+		_edgeVertex[edge * 3 + 1] = y;
+		_edgeVertex[edge * 3 + 2] = z;
+	}
+
+	//Set the normal at the surface intersection of a lattice edge by interpolating the gradients at either end.  Density 
+	//increases into the surface, so the outward normal is against the gradient
+	private void setEdgeNormal(int edge, float[] gradient, int from, int to, float t)
+	{
+		float x = gradient[from * 3] + (gradient[to * 3] - gradient[from * 3]) * t;
+		float y = gradient[from * 3 + 1] + (gradient[to * 3 + 1] - gradient[from * 3 + 1]) * t;
+		float z = gradient[from * 3 + 2] + (gradient[to * 3 + 2] - gradient[from * 3 + 2]) * t;
+		float length = (float)Math.sqrt(x * x + y * y + z * z);
+
+		if (length == 0) return;
+
+		_edgeNormal[edge * 3] = - x / length;
+		_edgeNormal[edge * 3 + 1] = - y / length;
+		_edgeNormal[edge * 3 + 2] = - z / length;
+	}
+}
@@ -0,0 +1,75 @@
+package TerrainBase;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Entry class for generating surface geometry without a display.  A scaffold is built to the levels of detail required by a
+ * fixed viewpoint, without a processing applet or camera, and its triangles are written out.  Intended for pre-generating
+ * geometry, benchmarking and use on machines without a GPU.
+ * @author Philip Larby
+ *
+ */
+public class HeadlessBase
+{
+	/**
+	 * Application entry point
+	 * @param args Optional viewpoint position as x y z, followed by an optional Wavefront OBJ file to write the triangles to.
+	 * The default viewpoint is one root cell radius above the surface of the default sphere
+	 * @throws IOException if the output file cannot be written
+	 */
+	public static void main(String args[]) throws IOException
+	{
+		float radius = Helpers.EarthDiameter / 2.5f;
+		Viewpoint view = new FixedViewpoint(0, 0, radius * 2);
+		
+		if (args.length >= 3)
+			view = new FixedViewpoint(Float.parseFloat(args[0]), Float.parseFloat(args[1]), Float.parseFloat(args[2]));
+		
+		TriangleBuffer triangles = Generate(view, Helpers.RootCellResolution, new SphereField(0, 0, 0, radius));
+		
+		if (args.length == 1 || args.length >= 4)
+		{
+			try (Writer out = new BufferedWriter(new FileWriter(args[args.length == 1 ? 0 : 3])))
+			{
+				triangles.writeOBJ(out);
+			}
+		}
+		
+		System.out.println("Cells: " + Helpers.CellCount.get() + ", Patches: " + Helpers.PatchCount.get() + 
+				", Triangles: " + triangles.getTriangleCount());
+	}
+	
+	/**
+	 * Build a scaffold to the levels of detail required by a viewpoint and collect its triangles.  Levels of detail are built
+	 * on the calling thread.
+	 * @param view The viewpoint levels of detail are calculated from
+	 * @param resolution Subdivisions of the root cell in each dimension
+	 * @param field The density field defining the surface.  If null a sphere is used
+	 * @return The triangles of the scaffold in absolute world coordinates
+	 */
+	public static TriangleBuffer Generate(Viewpoint view, int resolution, DensityField field)
+	{
+		boolean async = Helpers.AsyncLOD;
+		Helpers.AsyncLOD = false;
+		
+		try
+		{
+			Scaffold s = new Scaffold(resolution, field);
+			s.setViewpoint(view);
+			s.refine(100);
+			
+			TriangleBuffer triangles = new TriangleBuffer();
+			s.addTriangles(triangles);
+			s.dispose();
+			
+			return triangles;
+		}
+		finally
+		{
+			Helpers.AsyncLOD = async;
+		}
+	}
+}
@@ -5,6 +5,7 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.LinkedList;	
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import processing.core.PApplet;	
 import processing.core.PVector;
@@ -41,11 +42,50 @@ public class Helpers {
 	/** Specify whether to draw face edges on surface geometry */
 	public static boolean DrawCellTriangles = true;
 	
-	/** The current number of patches in the scene */
-	public static int PatchCount = 0;
+	/** Specify whether patches draw their surface geometry from a retained shape rather than cell by cell */
+	public static boolean RetainedMeshes = true;
 	
-	/** The current number of cells in the scene */
-	public static int CellCount = 0;
+	/** Specify whether cells outside the view frustum are skipped when drawing and refined last */
+	public static boolean FrustumCulling = true;
+	
+	/** Specify whether cells beyond the planet's horizon are skipped when drawing and not refined */
+	public static boolean HorizonCulling = true;
+	
+	/** Multiple of camera distance used to prioritise building detail for cells outside the view frustum */
+	public static float CulledLODPriority = 4;
+	
+	/** The current number of patches in the scene.  Atomic as patches may be built on worker threads */
+	public static final AtomicInteger PatchCount = new AtomicInteger();
+	
+	/** The current number of cells in the scene.  Atomic as patches may be built on worker threads */
+	public static final AtomicInteger CellCount = new AtomicInteger();
+	
+	/** Specify whether levels of detail are built on background threads rather than during the update cycle */
+	public static boolean AsyncLOD = true;
+	
+	/** Time allowed each frame for attaching patches built on background threads, in milliseconds */
+	public static float LODSwapBudget = 4;
+	
+	/** Fraction of the camera distance by which a cell must pass a level of detail boundary before detail is added or removed */
+	public static float LODHysteresis = 0.1f;
+	
+	/** Minimum time a child patch is kept before it can be removed, in milliseconds */
+	public static long LODMinResidence = 500;
+	
+	/** Number of child patches added during the current frame */
+	public static int LODAdds = 0;
+	
+	/** Number of child patches removed during the current frame */
+	public static int LODClears = 0;
+	
+	/** Maximum number of cells held in the cache of patches removed from the scaffold.  0 disables the cache */
+	public static int PatchCacheCapacity = 20000;
+	
+	/** Specify whether the cells of a patch may be constructed in parallel */
+	public static boolean ParallelPatchConstruction = true;
+	
+	/** Minimum number of cells in a patch before its cells are constructed in parallel */
+	public static int ParallelPatchThreshold = 27;
 	
 	/** The height of the camera above the surface geometry */
 	public static float ViewHeight = 0;
@@ -53,6 +93,9 @@ public class Helpers {
 	/** Minimum density for cell inclusion in surface geometry */
 	public static float DensityThreshold = 0.4f; 
 	
+	/** Specify whether the final level of detail is built as flat array grid patches rather than cells */
+	public static boolean UseGridPatches = false;
+	
 	/** Number of times to subdivide each cell when adding the next level of detail */
 	public static int PatchResolution = 2; 
 
@@ -65,18 +108,6 @@ public class Helpers {
 	/** The size of the smallest cell - assumes cells are regular cubes */
 	public static float SmallestCellDiameter = EarthDiameter;
 	
-	/** Timestamp of the last draw cycle intitiation */
-	public static long DrawCycleStart;
-	
-	/** Timestamp of the last draw cycle completion */
-	public static long DrawCycleEnd;
-	
-	/** Current FPS */
-	public static int FPS;
-	
-	/** Time of first draw cycle 0 including any setup require for scaffold creation */
-	public static double FirstCycleTime = -1;
-	
 	/**Specifying the verbosity of log information.  Disable for production. */
 	private static int _logLevel = 0; 
 	
@@ -105,58 +136,60 @@ public class Helpers {
 	}
 	
 	/**
-	 * Get the density value for a specific cell.  At present this function determines if the surface of a sphere passes through
-	 * the cell, and if so gives it a density value of 1, and if not, give it a density value of 0.  This allows cells that do not
-	 * intersect the surface to be discarded.  More complex density functions are supported here.
+	 * Get the density value for a specific cell.  This is a coarse measure used to discard cells that the surface does not 
+	 * pass close to, and is delegated to the density field of the cell's scaffold.  For the default sphere field a cell 
+	 * the surface passes through has a density value of 1, and any other cell has a density value of 0.
 	 * @param c the cell being evaluated
 	 * @return the corresponding density value
 	 */
 	public static float Density(Cell c)
 	{	
-		//Perlin nose based function
-		//return P.noise(c.getAbsolutePosition().x, c.getAbsolutePosition().y, c.getAbsolutePosition().z);
+		PVector pos = c.getAbsolutePosition();
+		PVector size = c.getBounds();
 		
-		//Define radius
-		float radius = root(c).getBounds().x / 2.5f;
-		
-		//Cutoff threshold
-		float threshold = 50;
-		
-		//the cell is not within the threshold distance of the base radius then discard it
-		if (c.getMaxDist() < radius - threshold || c.getMinDist() > radius + threshold) 
-			return 0; 
-		else
-		{
-			return 1;
-		}
+		return c.getDensityField().cellDensity(pos.x, pos.y, pos.z, size.x, size.y, size.z);
 	}
 	
 	/**
 	 * Get the density value for a specific point determined by the position of a vertex.  The parent cell of the 
-	 * vertex is required to provide an entry point to the scaffold hierarchy in order to reach the root cell. At
-	 * present this function determines if the vertex lies inside or outside the surface of a sphere, but more complex
-	 * density functions are supportable here.
+	 * vertex provides the density field of the scaffold.
 	 * @param v The vertex
 	 * @param parentCell The parent cell of the vertex
 	 * @return The density value at the specified point
 	 */
 	public static float Density(DensityVertex v, Cell parentCell)
 	{
-		//Perlin noise based function
-		//return P.noise(v.getAbsoloutePostion().x, v.getAbsoloutePostion().y, v.getAbsoloutePostion().z);
-		
-		Cell rootCell = root(parentCell);
+		PVector pos = v.getAbsoloutePostion();
 		
-		//Define radius
-		float radius = rootCell.getBounds().x / 2.5f;
-		
-		//get Distance from root
-		float distance = PVector.dist(v.getAbsoloutePostion(), rootCell.getAbsolutePosition());
+		return Density(pos.x, pos.y, pos.z, parentCell);
+	}
+	
+	/**
+	 * Get the density value for a specific point in world coordinates.  Any cell of the scaffold may be given to 
+	 * provide the scaffold's density field. 
+	 * @param x X position in world coordinates
+	 * @param y Y position in world coordinates
+	 * @param z Z position in world coordinates
+	 * @param c A cell from the scaffold being evaluated
+	 * @return The density value at the specified point
+	 */
+	public static float Density(float x, float y, float z, Cell c)
+	{
+		return c.getDensityField().density(x, y, z);
+	}
+	
+	/**
+	 * Find where the surface crosses an edge by linear interpolation of the densities at either end.  The result is
+	 * clamped to the edge, so an edge the surface does not cross gives the nearest end.
+	 * @param a The density at the start of the edge
+	 * @param b The density at the end of the edge
+	 * @return The distance along the edge from the start, as a fraction of its length
+	 */
+	public static float Crossing(float a, float b)
+	{
+		if (a == b) return 0.5f;
 		
-		if (distance <= radius )
-			return 1;
-		else
-			return 0;
+		return Math.max(0, Math.min(1, (DensityThreshold - a) / (b - a)));
 	}
 	
 	/**
@@ -190,14 +223,14 @@ public class Helpers {
 	}
 	
 	/**
-	 * Step up the LOD hierarchy to find the root of the specified cell
+	 * Find the root of the LOD hierarchy for the specified cell
 	 * @param c
 	 * @return
 	 */
 	public static Cell root(Cell c)
 	{
-		//Recursively step up the hierarchy until no further parents exist
-		return c.getParentCell() == null ? c : root(c.getParentCell());
+		//Each cell holds a reference to its root so there is no need to step up the hierarchy
+		return c.getRoot();
 	}
 	
 	/**
@@ -0,0 +1,127 @@
+package TerrainBase;
+
+import java.util.Arrays;
+
+/**
+ * A growable triangle mesh held as compact buffers ready for upload to the graphics card.  Each vertex is stored once, as
+ * three position coordinates and three normal components, and triangles refer to vertices by index so that vertices
+ * shared by neighbouring triangles are not repeated.
+ * @author Philip Larby
+ *
+ */
+public class IndexedMesh
+{
+	private float[] _vertices = new float[3 * 256];	//Vertex positions
+	private float[] _normals = new float[3 * 256];	//Vertex normals, laid out as the positions
+	private int[] _indices = new int[3 * 256];		//Vertex indices, three to a triangle
+	private int _vertexCount = 0;					//Number of vertices in use
+	private int _indexCount = 0;					//Number of indices in use
+
+	/**
+	 * Add a vertex
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 * @param nx X component of the unit normal
+	 * @param ny Y component of the unit normal
+	 * @param nz Z component of the unit normal
+	 * @return the index of the new vertex
+	 */
+	public int addVertex(float x, float y, float z, float nx, float ny, float nz)
+	{
+		int i = _vertexCount * 3;
+
+		if (i + 3 > _vertices.length)
+		{
+			_vertices = Arrays.copyOf(_vertices, _vertices.length * 2);
+			_normals = Arrays.copyOf(_normals, _vertices.length);
+		}
+
+		_vertices[i] = x;
+		_vertices[i + 1] = y;
+		_vertices[i + 2] = z;
+		_normals[i] = nx;
+		_normals[i + 1] = ny;
+		_normals[i + 2] = nz;
+
+		return _vertexCount++;
+	}
+
+	/**
+	 * Add a triangle joining three vertices already in the mesh
+	 * @param a Index of the first vertex
+	 * @param b Index of the second vertex
+	 * @param c Index of the third vertex
+	 */
+	public void addTriangle(int a, int b, int c)
+	{
+		if (_indexCount + 3 > _indices.length)
+			_indices = Arrays.copyOf(_indices, _indices.length * 2);
+
+		_indices[_indexCount++] = a;
+		_indices[_indexCount++] = b;
+		_indices[_indexCount++] = c;
+	}
+
+	/**
+	 * Get the number of vertices in the mesh
+	 * @return the vertex count
+	 */
+	public int getVertexCount()
+	{
+		return _vertexCount;
+	}
+
+	/**
+	 * Get the number of triangles in the mesh
+	 * @return the triangle count
+	 */
+	public int getTriangleCount()
+	{
+		return _indexCount / 3;
+	}
+
+	/**
+	 * Get the vertex positions
+	 * @return x, y and z of each vertex in index order
+	 */
+	public float[] getVertices()
+	{
+		return Arrays.copyOf(_vertices, _vertexCount * 3);
+	}
+
+	/**
+	 * Get the vertex normals
+	 * @return x, y and z of the normal of each vertex in index order
+	 */
+	public float[] getNormals()
+	{
+		return Arrays.copyOf(_normals, _vertexCount * 3);
+	}
+
+	/**
+	 * Get the triangles
+	 * @return the indices of the vertices of each triangle, three to a triangle
+	 */
+	public int[] getIndices()
+	{
+		return Arrays.copyOf(_indices, _indexCount);
+	}
+
+	/**
+	 * Add the triangles of the mesh to a sink, repeating shared vertices as the sink requires
+	 * @param s The sink receiving the triangles
+	 * @param x X offset added to each vertex
+	 * @param y Y offset added to each vertex
+	 * @param z Z offset added to each vertex
+	 */
+	public void addTriangles(TriangleSink s, float x, float y, float z)
+	{
+		for (int i = 0; i < _indexCount; i++)
+		{
+			int v = _indices[i] * 3;
+			s.normal(_normals[v], _normals[v + 1], _normals[v + 2]);
+			s.vertex(x + _vertices[v], y + _vertices[v + 1], z + _vertices[v + 2]);
+		}
+	}
+}
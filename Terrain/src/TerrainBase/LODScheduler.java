@@ -0,0 +1,163 @@
+package TerrainBase;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds patches for additional levels of detail on background threads so the draw cycle does not stall while they are
+ * constructed.  Cells request a patch during the update cycle and keep drawing themselves until it is ready.  Requests are
+ * built closest to the camera first, and completed patches are attached at the start of a later frame within a time budget.
+ * Each scaffold has its own scheduler, but all schedulers share a single pool of worker threads.
+ * @author Philip Larby
+ *
+ */
+public class LODScheduler
+{
+	//Worker threads shared by all schedulers.  The queue orders waiting requests by camera distance
+	private static ExecutorService _workers;
+
+	private ConcurrentLinkedQueue<Request> _completed = new ConcurrentLinkedQueue<Request>();	//Built patches waiting to be attached
+	private volatile boolean _cancelled = false;	//Set when the scaffold is discarded
+	private int _pending = 0;						//Number of requests not yet attached or discarded
+
+	/**
+	 * Request a new level of detail for a cell.  Does nothing if the cell already has a request waiting. Must be called from
+	 * the update cycle.
+	 * @param c The cell requiring a child patch
+	 * @param leaf indicates no further levels of detail will be required below the new patch
+	 * @param distance The distance of the cell from the camera, used to prioritise the request.  Cells outside the view pass
+	 * a multiple of their distance so they are built after cells in view
+	 */
+	public void request(Cell c, boolean leaf, float distance)
+	{
+		if (c.isLODPending()) return;
+
+		c.setLODPending(true);
+		_pending ++;
+		getWorkers().execute(new Request(c, leaf, distance, Helpers.PatchResolution));
+	}
+
+	/**
+	 * Attach completed patches to their cells.  Must be called from the update cycle before any cells are updated.  At least
+	 * one patch is attached each call, so progress is made however small the budget.
+	 * @param budget Time allowed for attaching patches in nanoseconds
+	 */
+	public void swapIn(long budget)
+	{
+		long start = System.nanoTime();
+		Request r;
+
+		while ((r = _completed.poll()) != null)
+		{
+			Cell c = r.cell;
+			c.setLODPending(false);
+			_pending --;
+
+			//The camera may have moved while the patch was built, so check it is still wanted before attaching it
+			if (r.patch != null && c.isAttached())
+			{
+				long t = Profiler.start();
+				int requiredLOD = Helpers.LODCaclulator(c.CamDistance() * (1 + Helpers.LODHysteresis));
+
+				if (!c.hasChildPatch() && requiredLOD > c.getLevel())
+				{
+					c.setChildPatch(r.patch);
+				}
+				else if (c.hasChildPatch() && !c.getChildPatch().canRefine() && r.patch.canRefine() && requiredLOD > c.getLevel() + 1)
+				{
+					//Replace a grid patch now that a patch that can be refined is ready
+					c.ClearChildPatch();
+					c.setChildPatch(r.patch);
+				}
+				
+				Profiler.stop(Profiler.LODAdd, t);
+			}
+
+			if (System.nanoTime() - start > budget) break;
+		}
+	}
+
+	/**
+	 * Get the number of requests that have not yet been attached or discarded
+	 * @return The number of pending requests
+	 */
+	public int pendingCount()
+	{
+		return _pending;
+	}
+
+	/**
+	 * Stop building patches for this scheduler.  Requests already waiting are skipped by the workers.
+	 */
+	public void cancel()
+	{
+		_cancelled = true;
+	}
+
+	//Create the shared worker threads on first use.  Threads are daemons so they do not keep the application alive
+	private static synchronized ExecutorService getWorkers()
+	{
+		if (_workers == null)
+		{
+			int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+
+			_workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+					new PriorityBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable r) {
+							Thread t = new Thread(r, "LOD builder");
+							t.setDaemon(true);
+							return t;
+						}
+					});
+		}
+
+		return _workers;
+	}
+
+	/**
+	 * A request for a cell's child patch, built on a worker thread
+	 */
+	private class Request implements Runnable, Comparable<Request>
+	{
+		private Cell cell;			//The cell requiring a child patch
+		private boolean leaf;		//No further levels of detail will be required below the patch
+		private float distance;		//Distance of the cell from the camera when requested
+		private int res;			//Patch resolution when requested
+		private Patch patch;		//The completed patch.  Null if the request was skipped
+
+		private Request(Cell c, boolean leaf, float distance, int res)
+		{
+			this.cell = c;
+			this.leaf = leaf;
+			this.distance = distance;
+			this.res = res;
+		}
+
+		@Override
+		public void run()
+		{
+			try
+			{
+				if (!_cancelled)
+					patch = cell.BuildLOD(res, res, res, leaf);
+			}
+			finally
+			{
+				//Always hand the request back so the cell can make a new request
+				_completed.add(this);
+			}
+		}
+
+		@Override
+		public int compareTo(Request o)
+		{
+			return Float.compare(distance, o.distance);
+		}
+	}
+}
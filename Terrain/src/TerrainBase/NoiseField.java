@@ -0,0 +1,51 @@
+package TerrainBase;
+
+import processing.core.PApplet;
+
+/**
+ * A density field using Processing's Perlin noise function, giving a volume of randomly connected caves.  The noise 
+ * function belongs to a PApplet instance and is only safe to share between threads once its tables are built.
+ * @author Philip Larby
+ *
+ */
+public class NoiseField implements DensityField 
+{
+	private PApplet _p;		//Applet providing the noise function
+	private float _scale;	//Scale applied to world coordinates before sampling the noise
+	
+	/**
+	 * Construct a noise density field
+	 * @param P The processing applet providing the noise function
+	 * @param scale Scale applied to world coordinates.  Smaller values give larger features
+	 */
+	public NoiseField(PApplet P, float scale)
+	{
+		_p = P;
+		_scale = scale;
+		
+		//Processing builds its noise tables on first use.  Do this now, as patches may be sampled on background threads
+		_p.noise(0, 0, 0);
+	}
+
+	@Override
+	public float density(float x, float y, float z) 
+	{
+		return _p.noise(x * _scale, y * _scale, z * _scale);
+	}
+
+	@Override
+	public void density(float[] x, float[] y, float[] z, float[] out, int count) 
+	{
+		for (int i = 0; i < count; i++)
+			out[i] = _p.noise(x[i] * _scale, y[i] * _scale, z[i] * _scale);
+	}
+
+	/**
+	 * Noise can place the surface anywhere so no cell can be discarded
+	 */
+	@Override
+	public float cellDensity(float x, float y, float z, float xBounds, float yBounds, float zBounds) 
+	{
+		return 1;
+	}
+}
@@ -1,7 +1,10 @@
 package TerrainBase;
 
-import java.util.Vector;
+import java.util.Arrays;
+import java.util.stream.IntStream;
 import processing.core.PApplet;
+import processing.core.PConstants;
+import processing.core.PShape;
 import processing.core.PVector;
 
 /**
@@ -15,8 +18,12 @@ public class Patch
 	
 	private Cell    _parent;       //Paths have reference to a parent point.  This provides the local origin. 
 	private Cell[] _cells;         //Cells encapsulated within the patch
+	private int[] _cellLattice;    //Position of each cell in the patch, as the cell index used by BuildCell
 	private PVector _dim;          //Dimensions of the patch in Cartesian space
 	private PVector _res;          //Resolution of the patch - the number of points in each dimension
+	private PShape _shape;         //Retained surface geometry of the leaf cells, with cell positions baked in
+	private boolean _shapeValid;   //Indicates the retained shape matches the current leaf cells
+	private boolean _shapeEdges;   //Wireframe setting the retained shape was built with
 
 	/**
 	 * Construct a patch that fully subdivides a parent cell with specified x, y, and z cell resolution
@@ -27,81 +34,283 @@ public class Patch
 	 */
 	public Patch(int xDef, int yDef, int zDef, Cell parent)
 	{		
-		Vector<Cell> cells = new Vector<Cell>();	//dynamic collection of cells 
-		
 		//Organise values into vectors for simpler code
 		_dim = new PVector(parent.getBounds().x, parent.getBounds().y, parent.getBounds().z); 	//3-Dimensional size of the patch
 		_res = new PVector(xDef, yDef, zDef); 	//3-Dimensional resolution of child cells
 		_parent = parent;						//Parent Cell
 	  
 		//Calculate Cell size in each dimension
-		PVector cellSize = new PVector(_dim.x / _res.x, _dim.y / _res.y, _dim.z / _res.z);
+		final PVector cellSize = new PVector(_dim.x / _res.x, _dim.y / _res.y, _dim.z / _res.z);
 	
 		//Cell level is one greater than the parent cell
-		int lvl = _parent.getLevel() + 1;  
+		final int lvl = _parent.getLevel() + 1;  
+		
+		//Sample the density and gradient at each lattice point once so neighbouring cells share their corner values
+		final float[] gradient = new float[LatticeSize(xDef, yDef, zDef) * 3];
+		final float[] lattice = SampleLattice(xDef, yDef, zDef, gradient);
+		
+		//Subdivide area into specified resolution and create cells.  Each cell is an independent job, so larger patches
+		//build their cells in parallel on the common fork/join pool.  Discarded cells leave a null entry
+		final Cell[] built = new Cell[xDef * yDef * zDef];
+		IntStream jobs = IntStream.range(0, built.length);
+		
+		if (Helpers.ParallelPatchConstruction && built.length >= Helpers.ParallelPatchThreshold)
+			jobs = jobs.parallel();
+		
+		jobs.forEach(i -> built[i] = BuildCell(i, lattice, gradient, cellSize, lvl));
 		
-		//Subdivide area into specified resolution and create cells
-		PVector cellPos = new PVector(); 
-		for (int x = 0; x < _res.x; x++)
+		//Collect the retained cells in their original order
+		int count = 0;
+		for (Cell c : built) 
+			if (c != null) count++;
+		
+		_cells = new Cell[count];
+		_cellLattice = new int[count];
+		count = 0;
+		for (int i = 0; i < built.length; i++) 
 		{
-			cellPos.x = - (_dim.x / 2) + (cellSize.x / 2) + (cellSize.x * x);
-			for (int y = 0; y < _res.y; y++)
-			{
-				cellPos.y = - (_dim.y / 2) + (cellSize.y / 2) + (cellSize.y * y);
-				for (int z = 0; z < _res.z; z++)
-				{
-					cellPos.z = - (_dim.z / 2) + (cellSize.z / 2) + (cellSize.z * z);
-				 	
-					//Instantiate new cell
-					Cell c = new Cell(
-			 			cellPos.x, 
-			 			cellPos.y, 
-			 			cellPos.z, 
-			 			lvl, //Level is one level greater than it's parent
-			 			cellSize.x, 
-			 			cellSize.y,
-			 			cellSize.z,
-			 			this, 
-			 			-1); 
-					
-					Helpers.log(1,"Evaluating Cell");
-					
-					Helpers.log(1,"-> Maximum distance from Origin: " + c.getMaxDist());
-					Helpers.log(1,"-> Minimum distance from Origin: " + c.getMinDist());
-					
-					float cellDensity = Helpers.Density(c);
-					Helpers.log(1,"-> Cell density: " + cellDensity);
-					
-					//If cell density above threshold then add to collection
-					if ( cellDensity > Helpers.DensityThreshold) 
-					{
-						Helpers.log(1,"-> Adding cell to patch");
-						cells.add(c);
-					}
-					else
-					{
-						Helpers.log(1,"-> Discarding cell as below density threshold");
-					}
-					
-					Helpers.log(1,"Cell Evaluation Complete");
-				}
-			}
-	  	}
+			if (built[i] == null) continue;
+			_cells[count] = built[i];
+			_cellLattice[count++] = i;
+		}
 		
-		if (cells.size() == 0)
+		if (_cells.length == 0)
 		{
 			Helpers.log(1,"Warning: Patch created no subcells! ");
 			Helpers.log(1,"-> Parent cell realtive position: " + parent.getRelativePosition());
 			Helpers.log(1,"-> Parent cell absolute position: " + parent.getAbsolutePosition());
 			Helpers.log(1,"-> Patch Size:" + cellSize);
 		}
+	}
+	
+	/**
+	 * Build a single child cell.  This may run on any thread so only reads shared state.
+	 * @param index Index of the cell with x as the outermost and z as the innermost dimension
+	 * @param lattice Densities sampled at each lattice point
+	 * @param gradient Density gradients sampled at each lattice point
+	 * @param cellSize Size of the cell in each dimension
+	 * @param lvl Level of the cell
+	 * @return The new cell, or null if it is discarded as not near the surface
+	 */
+	private Cell BuildCell(int index, float[] lattice, float[] gradient, PVector cellSize, int lvl)
+	{
+		int xRes = (int)_res.x;
+		int yRes = (int)_res.y;
+		int zRes = (int)_res.z;
+		
+		int x = index / (yRes * zRes);
+		int y = index / zRes % yRes;
+		int z = index % zRes;
 		
-		//Convert cell container from vector to array
-		_cells = new Cell[cells.size()];
-		cells.toArray(_cells);
+		//Position of the cell centre relative to the patch centre
+		float px = - (_dim.x / 2) + (cellSize.x / 2) + (cellSize.x * x);
+		float py = - (_dim.y / 2) + (cellSize.y / 2) + (cellSize.y * y);
+		float pz = - (_dim.z / 2) + (cellSize.z / 2) + (cellSize.z * z);
 		
-		Helpers.CellCount += cells.size();
-		Helpers.PatchCount ++;
+		Helpers.log(1,"Evaluating Cell");
+		
+		//Classify the cell from its corner densities before building it.  A cell with corners on both sides of the surface 
+		//is always kept.  Otherwise the cell is empty or solid, and is only kept if the density field reports the surface 
+		//passes close enough that it may be needed at a finer level of detail
+		int pattern = 0;
+		for (int v = 0; v < 8; v++)
+		{
+			int[] o = Surface.getVertexLatticeOffset(v);
+			if (lattice[LatticeIndex(x + o[0], y + o[1], z + o[2], yRes, zRes)] > Helpers.DensityThreshold)
+				pattern |= 1 << v;
+		}
+		
+		if (pattern == 0 || pattern == 255)
+		{
+			PVector origin = _parent.getAbsolutePosition();
+			float cellDensity = _parent.getDensityField().cellDensity(origin.x + px, origin.y + py, origin.z + pz, 
+					cellSize.x, cellSize.y, cellSize.z);
+			Helpers.log(1,"-> Cell density: " + cellDensity);
+			
+			if (cellDensity <= Helpers.DensityThreshold)
+			{
+				Helpers.log(1,"-> Discarding cell as below density threshold");
+				Helpers.log(1,"Cell Evaluation Complete");
+				return null;
+			}
+		}
+		
+		//Gather the corner densities and gradients for the cell from the lattice
+		float[] vertexDensity = new float[8];
+		float[] vertexGradient = new float[24];
+		for (int v = 0; v < 8; v++)
+		{
+			int[] o = Surface.getVertexLatticeOffset(v);
+			int l = LatticeIndex(x + o[0], y + o[1], z + o[2], yRes, zRes);
+			vertexDensity[v] = lattice[l];
+			System.arraycopy(gradient, l * 3, vertexGradient, v * 3, 3);
+		}
+		
+		//Instantiate new cell
+		Cell c = new Cell(
+	 			px, 
+	 			py, 
+	 			pz, 
+	 			lvl, //Level is one level greater than it's parent
+	 			cellSize.x, 
+	 			cellSize.y,
+	 			cellSize.z,
+	 			this, 
+	 			vertexDensity,
+	 			vertexGradient); 
+		
+		Helpers.log(1,"-> Adding cell to patch");
+		Helpers.log(1,"Cell Evaluation Complete");
+		return c;
+	}
+	
+	/**
+	 * Construct an empty patch covering a parent cell.  Used by derived patches that store their cells in a different form
+	 * @param parent The parent cell being subdivided
+	 */
+	protected Patch(Cell parent)
+	{
+		_dim = new PVector(parent.getBounds().x, parent.getBounds().y, parent.getBounds().z);
+		_parent = parent;
+		_cells = new Cell[0];
+		_cellLattice = new int[0];
+	}
+	
+	/**
+	 * Evaluate the density function at every point of the lattice formed by the corners of the patch's cells, and estimate 
+	 * its gradient from the results.  Each lattice point is evaluated once, rather than once for each of the up to 8 cells 
+	 * that share it.
+	 * @param xRes X resolution
+	 * @param yRes Y resolution
+	 * @param zRes Z resolution
+	 * @param gradient Receives the x, y and z components of the density gradient at each lattice point, three values per 
+	 * point.  Must hold 3 * LatticeSize values
+	 * @return the density at each lattice point, indexed using LatticeIndex
+	 */
+	protected float[] SampleLattice(int xRes, int yRes, int zRes, float[] gradient)
+	{
+		int count = LatticeSize(xRes, yRes, zRes);
+		float[] px = new float[count];
+		float[] py = new float[count];
+		float[] pz = new float[count];
+		float[] ret = new float[count];
+		
+		PVector origin = _parent.getAbsolutePosition();
+		
+		//Lattice starts from the lowest corner of the parent cell
+		float ox = origin.x - _dim.x / 2;
+		float oy = origin.y - _dim.y / 2;
+		float oz = origin.z - _dim.z / 2;
+		
+		for (int x = 0; x <= xRes; x++)
+			for (int y = 0; y <= yRes; y++)
+				for (int z = 0; z <= zRes; z++)
+				{
+					int i = LatticeIndex(x, y, z, yRes, zRes);
+					px[i] = ox + _dim.x * x / xRes;
+					py[i] = oy + _dim.y * y / yRes;
+					pz[i] = oz + _dim.z * z / zRes;
+				}
+		
+		//Evaluate all lattice points in a single call to the density field
+		long t = Profiler.start();
+		_parent.getDensityField().density(px, py, pz, ret, count);
+		Profiler.stop(Profiler.Density, t);
+		
+		//The gradients come from the densities already sampled, so need no further calls to the field
+		LatticeGradient(ret, xRes, yRes, zRes, _dim.x / xRes, _dim.y / yRes, _dim.z / zRes, gradient);
+		
+		return ret;
+	}
+	
+	/**
+	 * Estimate the density gradient at every lattice point from the sampled densities.  Central differences between 
+	 * neighbouring lattice points are used, except on the faces of the lattice where there is no neighbour on one side and 
+	 * one-sided differences through the next two points inwards are used instead
+	 * @param lattice The density at each lattice point, indexed using LatticeIndex
+	 * @param xRes X resolution
+	 * @param yRes Y resolution
+	 * @param zRes Z resolution
+	 * @param xStep Spacing of the lattice in the x dimension
+	 * @param yStep Spacing of the lattice in the y dimension
+	 * @param zStep Spacing of the lattice in the z dimension
+	 * @param gradient Receives the x, y and z components of the density gradient at each lattice point, three values per 
+	 * point
+	 */
+	protected static void LatticeGradient(float[] lattice, int xRes, int yRes, int zRes, float xStep, float yStep, 
+			float zStep, float[] gradient)
+	{
+		//Distance between neighbouring lattice points in the index along each axis
+		int xStride = LatticeIndex(1, 0, 0, yRes, zRes);
+		int yStride = LatticeIndex(0, 1, 0, yRes, zRes);
+		
+		for (int x = 0; x <= xRes; x++)
+			for (int y = 0; y <= yRes; y++)
+				for (int z = 0; z <= zRes; z++)
+				{
+					int i = LatticeIndex(x, y, z, yRes, zRes);
+					gradient[i * 3] = Difference(lattice, i, xStride, x, xRes, xStep);
+					gradient[i * 3 + 1] = Difference(lattice, i, yStride, y, yRes, yStep);
+					gradient[i * 3 + 2] = Difference(lattice, i, 1, z, zRes, zStep);
+				}
+	}
+	
+	//Rate of change of density along one axis of the lattice at a point, which is at position pos of res along the axis
+	private static float Difference(float[] lattice, int i, int stride, int pos, int res, float step)
+	{
+		if (pos > 0 && pos < res)
+			return (lattice[i + stride] - lattice[i - stride]) / (2 * step);
+		
+		//On a face look inwards only, fitting a quadratic through three points where the lattice is deep enough
+		int s = pos == 0 ? stride : -stride;
+		float sign = pos == 0 ? 1 : -1;
+		
+		if (res == 1)
+			return sign * (lattice[i + s] - lattice[i]) / step;
+		
+		return sign * (4 * lattice[i + s] - 3 * lattice[i] - lattice[i + 2 * s]) / (2 * step);
+	}
+	
+	/**
+	 * Get the number of points in the lattice formed by the corners of a patch's cells
+	 * @param xRes X resolution of the patch
+	 * @param yRes Y resolution of the patch
+	 * @param zRes Z resolution of the patch
+	 * @return the number of lattice points
+	 */
+	protected static int LatticeSize(int xRes, int yRes, int zRes)
+	{
+		return (xRes + 1) * (yRes + 1) * (zRes + 1);
+	}
+	
+	/**
+	 * Get the index of a lattice point in the array returned by SampleLattice
+	 * @param x X lattice position
+	 * @param y Y lattice position
+	 * @param z Z lattice position
+	 * @param yRes Y resolution of the patch
+	 * @param zRes Z resolution of the patch
+	 * @return the array index
+	 */
+	protected static int LatticeIndex(int x, int y, int z, int yRes, int zRes)
+	{
+		return (x * (yRes + 1) + y) * (zRes + 1) + z;
+	}
+	
+	/**
+	 * Get the index of a lattice edge.  Each lattice point has three edges leaving it in the positive x, y and z directions
+	 * @param x X lattice position of the lowest corner of a cell
+	 * @param y Y lattice position of the lowest corner of a cell
+	 * @param z Z lattice position of the lowest corner of a cell
+	 * @param edge The edge of the cell, as defined in the project documentation
+	 * @param yRes Y resolution of the patch
+	 * @param zRes Z resolution of the patch
+	 * @return the index, which is less than 3 * LatticeSize
+	 */
+	protected static int EdgeIndex(int x, int y, int z, int edge, int yRes, int zRes)
+	{
+		int[] o = Surface.getEdgeLatticeOffset(edge);
+		return LatticeIndex(x + o[0], y + o[1], z + o[2], yRes, zRes) * 3 + o[3];
 	}
 	
 	/**
@@ -114,6 +323,37 @@ public class Patch
 		return _cells.length;
 	}
 	
+	/**
+	 * Add the number of cells in this patch and all levels of detail below it to a count for each level
+	 * @param levels Cell counts indexed by level.  Levels beyond the end of the array are not counted
+	 */
+	public void CountCells(int[] levels)
+	{
+		for (Cell c : _cells)
+		{
+			if (c.getLevel() < levels.length) levels[c.getLevel()]++;
+			if (c.hasChildPatch()) c.getChildPatch().CountCells(levels);
+		}
+	}
+	
+	/**
+	 * Clear any lower levels of detail for all cells of this patch
+	 */
+	public void ClearChildPatches()
+	{
+		for (Cell c : _cells) 
+			if (c.hasChildPatch()) c.ClearChildPatch();
+	}
+	
+	/**
+	 * Check if the cells of this patch can be given further levels of detail
+	 * @return true if the patch holds cells that may have child patches
+	 */
+	public boolean canRefine()
+	{
+		return true;
+	}
+	
 	/**
 	 * Get a reference to the direct parent cell for this patch. 
 	 * @return the parent cell
@@ -123,6 +363,136 @@ public class Patch
 		return _parent;
 	}
 	
+	/**
+	 * Mark the retained shape as out of date so it is rebuilt on the next draw.  Called when the leaf cells of the patch change
+	 */
+	public void invalidateShape()
+	{
+		_shapeValid = false;
+	}
+	
+	/**
+	 * Draw the retained shape, first rebuilding it if the leaf cells or the wireframe setting have changed since it was built
+	 * @param P Reference to a processing PApplet or derived class
+	 */
+	protected void drawShape(PApplet P)
+	{
+		if (_shape == null || !_shapeValid || _shapeEdges != Helpers.DrawTriangleMesh)
+		{
+			_shape = P.createShape();
+			_shape.beginShape(PConstants.TRIANGLES);
+			
+			//Draw wireframe if specified
+			if (Helpers.DrawTriangleMesh)
+			{
+				_shape.strokeWeight(1);
+				_shape.stroke(0);
+			}
+			else
+				_shape.noStroke();
+			
+			_shape.fill(255);
+			addLeafTriangles(new TriangleSink()
+			{
+				@Override
+				public void vertex(float x, float y, float z) { _shape.vertex(x, y, z); }
+				
+				@Override
+				public void normal(float x, float y, float z) { _shape.normal(x, y, z); }
+			}, 0, 0, 0);
+			_shape.endShape();
+			
+			_shapeValid = true;
+			_shapeEdges = Helpers.DrawTriangleMesh;
+		}
+		
+		P.shape(_shape);
+	}
+	
+	/**
+	 * Add the triangles of the patch's leaf cells to a sink.  Cells with child patches are left to those patches
+	 * @param s The sink receiving the triangles
+	 * @param x X offset added to each vertex
+	 * @param y Y offset added to each vertex
+	 * @param z Z offset added to each vertex
+	 */
+	protected void addLeafTriangles(TriangleSink s, float x, float y, float z)
+	{
+		for (Cell c : _cells) 
+			if (!c.hasChildPatch()) c.addTriangles(s, x, y, z);
+	}
+	
+	/**
+	 * Build an indexed mesh of the surface geometry of the patch's leaf cells.  Neighbouring cells share the lattice edges 
+	 * between them, so each lattice edge the surface crosses becomes a single vertex used by every triangle that meets it.
+	 * Cells with child patches are left to those patches
+	 * @return the mesh, with vertices relative to the patch centre
+	 */
+	public IndexedMesh buildMesh()
+	{
+		int xRes = (int)_res.x;
+		int yRes = (int)_res.y;
+		int zRes = (int)_res.z;
+		
+		//Mesh vertex assigned to each lattice edge, or -1 if the edge has not been reached yet
+		int[] edgeVertex = new int[LatticeSize(xRes, yRes, zRes) * 3];
+		Arrays.fill(edgeVertex, -1);
+		
+		IndexedMesh mesh = new IndexedMesh();
+		
+		for (int i = 0; i < _cells.length; i++)
+		{
+			Cell c = _cells[i];
+			if (c.hasChildPatch()) continue;
+			
+			int x = _cellLattice[i] / (yRes * zRes);
+			int y = _cellLattice[i] / zRes % yRes;
+			int z = _cellLattice[i] % zRes;
+			PVector pos = c.getRelativePosition();
+			
+			//Find or add the vertex of the bisected edge at each corner of each triangle
+			int[] edges = Surface.getEdgeTriangles(c.getIdentifier());
+			for (int j = 0; j < edges.length; j += 3)
+			{
+				mesh.addTriangle(
+						MeshVertex(mesh, edgeVertex, c, pos, edges[j], EdgeIndex(x, y, z, edges[j], yRes, zRes)),
+						MeshVertex(mesh, edgeVertex, c, pos, edges[j + 1], EdgeIndex(x, y, z, edges[j + 1], yRes, zRes)),
+						MeshVertex(mesh, edgeVertex, c, pos, edges[j + 2], EdgeIndex(x, y, z, edges[j + 2], yRes, zRes)));
+			}
+		}
+		
+		return mesh;
+	}
+	
+	//Get the mesh vertex of a lattice edge, adding the crossing point of the corresponding cell edge if it is the first
+	//time the lattice edge has been reached
+	private static int MeshVertex(IndexedMesh mesh, int[] edgeVertex, Cell c, PVector pos, int cellEdge, int latticeEdge)
+	{
+		if (edgeVertex[latticeEdge] == -1)
+		{
+			PVector v = c.getSurfaceVertex(cellEdge);
+			PVector n = c.getSurfaceNormal(cellEdge);
+			edgeVertex[latticeEdge] = mesh.addVertex(pos.x + v.x, pos.y + v.y, pos.z + v.z, n.x, n.y, n.z);
+		}
+		
+		return edgeVertex[latticeEdge];
+	}
+	
+	/**
+	 * Add the triangles of this patch and all levels of detail below it to a sink
+	 * @param s The sink receiving the triangles
+	 * @param x X offset added to each vertex, normally the absolute position of the patch centre
+	 * @param y Y offset added to each vertex
+	 * @param z Z offset added to each vertex
+	 */
+	public void addTriangles(TriangleSink s, float x, float y, float z)
+	{
+		addLeafTriangles(s, x, y, z);
+		
+		for (Cell c : _cells) 
+			if (c.hasChildPatch()) c.addTriangles(s, x, y, z);
+	}
+	
 	/**
 	 * Execute update logic 
 	 */
@@ -141,8 +511,26 @@ public class Patch
 	  //Push current world matrix onto the stack
 	  P.pushMatrix();
 	    
-	  // draw each cell
-	  for (Cell c : _cells) c.draw(P);
+	  //Cell debug overlays are only available in immediate mode
+	  if (Helpers.RetainedMeshes && !Helpers.DrawCellBounds && !Helpers.DrawCellVertex && !Helpers.DrawCellCentre)
+	  {
+		  //Draw leaf cells with a single call, and defer cells with further detail to their child patches
+		  if (Helpers.DrawCellTriangles)
+			  drawShape(P);
+		  
+		  for (Cell c : _cells)
+		  {
+			  if (c.hasChildPatch()) 
+				  c.draw(P);
+			  else
+				  Helpers.SmallestCellDiameter = Math.min(c.getBounds().x, Helpers.SmallestCellDiameter);
+		  }
+	  }
+	  else
+	  {
+		  // draw each cell
+		  for (Cell c : _cells) c.draw(P);
+	  }
 	  
 	  //Draw patch bounaries
 	  if (Helpers.DrawPatchBounds && _dim != null)
@@ -0,0 +1,129 @@
+package TerrainBase;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded least recently used cache of patches removed from the scaffold.  When a cell's child patch is cleared it is kept
+ * here, keyed by the address of the cell, so that if the same level of detail is needed again it can be restored rather than
+ * rebuilt.  The capacity is measured in cells, and the least recently used patches are evicted once it is exceeded.
+ * @author Philip Larby
+ *
+ */
+public class PatchCache
+{
+	//Cached patches in least recently used order
+	private LinkedHashMap<String, Patch> _patches = new LinkedHashMap<String, Patch>(16, 0.75f, true);
+	private int _capacity;		//Maximum number of cells held
+	private int _size = 0;		//Number of cells currently held
+	private int _hits = 0;		//Number of patches restored from the cache
+	private int _misses = 0;	//Number of patches requested but not found
+	private int _evictions = 0;	//Number of patches evicted to stay within capacity
+
+	/**
+	 * Construct an empty cache
+	 * @param capacity the maximum number of cells to hold.  A capacity of 0 disables the cache
+	 */
+	public PatchCache(int capacity)
+	{
+		_capacity = capacity;
+	}
+
+	/**
+	 * Remove a patch from the cache if it can be used.  Grid patches hold no cells to refine so can only be used as leaves,
+	 * and are left in the cache when further detail is required
+	 * @param key The address of the patch
+	 * @param leaf indicates no further levels of detail will be required below the patch
+	 * @return The cached patch, or null if there is no usable patch cached for the address
+	 */
+	public Patch take(String key, boolean leaf)
+	{
+		Patch p = _patches.get(key);
+
+		if (p == null || !(leaf || p.canRefine()))
+		{
+			_misses ++;
+			return null;
+		}
+
+		_patches.remove(key);
+		_hits ++;
+		_size -= cost(p);
+		return p;
+	}
+
+	/**
+	 * Add a patch to the cache, evicting the least recently used patches if the capacity is exceeded
+	 * @param key The address of the patch
+	 * @param p The patch being cached
+	 */
+	public void put(String key, Patch p)
+	{
+		if (cost(p) > _capacity) return;
+
+		Patch old = _patches.put(key, p);
+		if (old != null) _size -= cost(old);
+		_size += cost(p);
+
+		//Evict the eldest entries until back within capacity
+		Iterator<Map.Entry<String, Patch>> i = _patches.entrySet().iterator();
+		while (_size > _capacity && i.hasNext())
+		{
+			_size -= cost(i.next().getValue());
+			i.remove();
+			_evictions ++;
+		}
+	}
+
+	/**
+	 * Remove all patches from the cache
+	 */
+	public void clear()
+	{
+		_patches.clear();
+		_size = 0;
+	}
+
+	/**
+	 * Get the number of patches restored from the cache
+	 * @return the hit count
+	 */
+	public int getHits()
+	{
+		return _hits;
+	}
+
+	/**
+	 * Get the number of patches requested but not found in the cache
+	 * @return the miss count
+	 */
+	public int getMisses()
+	{
+		return _misses;
+	}
+
+	/**
+	 * Get the number of patches evicted to stay within capacity
+	 * @return the eviction count
+	 */
+	public int getEvictions()
+	{
+		return _evictions;
+	}
+
+	/**
+	 * Get the number of cells currently held
+	 * @return the number of cells
+	 */
+	public int size()
+	{
+		return _size;
+	}
+
+	//Cost of holding a patch.  Patches with no cells still occupy an entry so cost at least one
+	private static int cost(Patch p)
+	{
+		return Math.max(1, p.CellCount());
+	}
+}
@@ -1,6 +1,9 @@
 
 package TerrainBase;
 
+import java.io.IOException;
+import java.io.Writer;
+
 import processing.core.PApplet;
 import processing.core.PConstants;
 
@@ -29,6 +32,11 @@ public class ProcBase extends PApplet {
 	 */
 	private Scaffold s;
 	
+	/**
+	 * Index of the density field used to build the scaffold - see CreateDensityField
+	 */
+	private int fieldType = 0;
+	
 	/**
 	 * Runs once on initialisation prior to the standard processing setup method.  Used for configuring
 	 * some global processing properties 
@@ -49,10 +57,33 @@ public class ProcBase extends PApplet {
 		Helpers.P = this;
 		
 		//Instantiate new scaffold;
-		s = new Scaffold(Helpers.RootCellResolution);
+		NewScaffold();
+	}
+	
+	/**
+	 * Replace the scaffold with a new one built from the current settings, stopping any background work for the old one
+	 */
+	private void NewScaffold()
+	{
+		if (s != null) s.dispose();
 		
-		//Initalise generation of the the lookup tables for surface extraction processing
-		Surface.BuildEdgeBisectionTable();
+		s = new Scaffold(Helpers.RootCellResolution, CreateDensityField());
+	}
+	
+	/**
+	 * Create the density field for the currently selected field type.  Fields are sized to match the default scaffold. 
+	 * @return a sphere, terrain or noise density field
+	 */
+	private DensityField CreateDensityField()
+	{
+		float radius = Helpers.EarthDiameter / 2.5f;
+		
+		switch (fieldType)
+		{
+			case 1: return new TerrainField(0, 0, 0, radius);
+			case 2: return new NoiseField(this, 1 / radius);
+			default: return new SphereField(0, 0, 0, radius);
+		}
 	}
 	
 	/**
@@ -66,6 +97,22 @@ public class ProcBase extends PApplet {
 		s.update();
 	}
 	
+	/**
+	 * Write the frames recorded by the profiler to profile.csv and profile.json in the sketch folder
+	 */
+	private void ExportProfile()
+	{
+		try (Writer csv = createWriter("profile.csv"); Writer json = createWriter("profile.json"))
+		{
+			Profiler.exportCSV(csv);
+			Profiler.exportJSON(json);
+		}
+		catch (IOException e)
+		{
+			Helpers.log(0, "Profile export failed: " + e.getMessage());
+		}
+	}
+	
 	/**
 	 * Logic for keypress events
 	 */
@@ -79,11 +126,19 @@ public class ProcBase extends PApplet {
 		if (key == 'n') Helpers.DrawCellCentre = !Helpers.DrawCellCentre;
 		if (key == 'o') Helpers.DrawScaffoldOrigin = !Helpers.DrawScaffoldOrigin;
 		if (key == 'g') Helpers.DrawCellTriangles = !Helpers.DrawCellTriangles;
-		if (key == 'r') s = new Scaffold(Helpers.RootCellResolution);
-		if (key == '+') {Helpers.DensityThreshold += 0.01; s = new Scaffold(Helpers.RootCellResolution);}
-		if (key == '-') {Helpers.DensityThreshold -= 0.01; s = new Scaffold(Helpers.RootCellResolution);}
-		if (key == 'a') {Helpers.RootCellResolution += 1; s = new Scaffold(Helpers.RootCellResolution);}
-		if (key == 'z') {Helpers.RootCellResolution -= 1; s = new Scaffold(Helpers.RootCellResolution);}
+		if (key == 'l') Helpers.UseGridPatches = !Helpers.UseGridPatches;
+		if (key == 'r') NewScaffold();
+		if (key == '+') {Helpers.DensityThreshold += 0.01; NewScaffold();}
+		if (key == '-') {Helpers.DensityThreshold -= 0.01; NewScaffold();}
+		if (key == 'a') {Helpers.RootCellResolution += 1; NewScaffold();}
+		if (key == 'z') {Helpers.RootCellResolution -= 1; NewScaffold();}
+		if (key == 'd') {fieldType = (fieldType + 1) % 3; NewScaffold();}
+		if (key == 'y') Helpers.AsyncLOD = !Helpers.AsyncLOD;
+		if (key == 'm') Helpers.RetainedMeshes = !Helpers.RetainedMeshes;
+		if (key == 'f') {Profiler.Enabled = !Profiler.Enabled; Profiler.reset();}
+		if (key == 'e') ExportProfile();
+		if (key == 'k') Helpers.FrustumCulling = !Helpers.FrustumCulling;
+		if (key == 'h') Helpers.HorizonCulling = !Helpers.HorizonCulling;
 		if (key == 's') {Helpers.PatchResolution += 1;}
 		if (key == 'x') {Helpers.PatchResolution -= 1;}
 	}
@@ -94,7 +149,7 @@ public class ProcBase extends PApplet {
 	public void draw()
 	{
 		
-		Helpers.DrawCycleStart = System.nanoTime();
+		Profiler.beginFrame();
 		
 		//Trigger update logic to run prior to draw logic
 		update();
@@ -113,9 +168,6 @@ public class ProcBase extends PApplet {
 	    //trigger drawing process for child objects
 	    s.draw(this);
 	    
-	    Helpers.DrawCycleEnd = System.nanoTime();
-	    
-	    Helpers.FPS = (int) (1/((Helpers.DrawCycleEnd - Helpers.DrawCycleStart) / 1000000000.0));
-	    if (Helpers.FirstCycleTime == -1) Helpers.FirstCycleTime = (Helpers.DrawCycleEnd - Helpers.DrawCycleStart) / 1000000000.0;
+	    Profiler.endFrame(s);
 	}
 }
@@ -0,0 +1,246 @@
+package TerrainBase;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long each phase of a frame takes, along with the memory allocated and the number of cells at each level of
+ * detail.  The most recent frames are kept so percentiles can be shown in the HUD or exported for offline analysis.  Phases
+ * may overlap: adding a level of detail synchronously includes building its patch, and building a patch includes sampling
+ * its density.  Patches built on background threads are counted in the frame they complete in.  When disabled each
+ * measurement is a single flag check.
+ * @author Philip Larby
+ *
+ */
+public class Profiler
+{
+	/** Phase indices */
+	public static final int Update = 0, LODAdd = 1, LODClear = 2, PatchBuild = 3, Density = 4, Draw = 5, Frame = 6;
+
+	/** Display names of each phase */
+	public static final String[] PhaseNames = {"Update", "LOD Add", "LOD Clear", "Patch Build", "Density", "Draw", "Frame"};
+
+	/** Specify whether frames are being profiled */
+	public static boolean Enabled = false;
+
+	/** Number of recent frames kept */
+	public static final int HistoryLength = 600;
+
+	/** Number of levels of detail cells are counted for */
+	public static final int MaxLevels = 16;
+
+	private static final int Phases = PhaseNames.length;
+
+	private static final AtomicLongArray _current = new AtomicLongArray(Phases);	//Time spent in each phase this frame, in nanoseconds
+	private static final long[][] _history = new long[Phases][HistoryLength];		//Time spent in each phase of recent frames
+	private static final long[] _allocHistory = new long[HistoryLength];			//Bytes allocated by the draw thread in recent frames
+	private static final int[] _cellsPerLevel = new int[MaxLevels];					//Cells at each level at the end of the last frame
+	private static int _frames = 0;		//Number of frames profiled
+
+	private static long _frameStart;			//Start of the current frame
+	private static long _allocStart = -1;		//Bytes allocated by the draw thread at the start of the current frame
+	private static long _allocEnd = -1;			//Bytes allocated by the draw thread when measurement stopped this frame
+	private static int _fps;					//Frame rate based on the duration of the last frame
+	private static double _firstFrameTime = -1;	//Duration of the first frame in seconds
+
+	/**
+	 * Start timing a phase
+	 * @return The start time to pass to stop, or 0 if profiling is disabled
+	 */
+	public static long start()
+	{
+		return Enabled ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Stop timing a phase and add the elapsed time to the current frame.  May be called from any thread.
+	 * @param phase The phase index
+	 * @param start The value returned by start
+	 */
+	public static void stop(int phase, long start)
+	{
+		if (start != 0) _current.addAndGet(phase, System.nanoTime() - start);
+	}
+
+	/**
+	 * Mark the start of a frame.  Must be called from the draw thread.
+	 */
+	public static void beginFrame()
+	{
+		_frameStart = System.nanoTime();
+		_allocStart = Enabled ? allocatedBytes() : -1;
+		_allocEnd = -1;
+	}
+
+	/**
+	 * Stop measuring the memory allocated this frame, so that anything drawn afterwards, such as the HUD, is not counted.  
+	 * If not called the measurement runs to the end of the frame.  Must be called from the draw thread.
+	 */
+	public static void endAllocation()
+	{
+		if (_allocStart != -1 && _allocEnd == -1) _allocEnd = allocatedBytes();
+	}
+
+	/**
+	 * Mark the end of a frame, recording the time spent in each phase.  Must be called from the draw thread.
+	 * @param S The scaffold being displayed, used to count cells at each level of detail
+	 */
+	public static void endFrame(Scaffold S)
+	{
+		long duration = System.nanoTime() - _frameStart;
+
+		_fps = (int) (1 / (duration / 1000000000.0));
+		if (_firstFrameTime == -1) _firstFrameTime = duration / 1000000000.0;
+
+		if (!Enabled) return;
+
+		int slot = _frames % HistoryLength;
+
+		_current.set(Frame, duration);
+		for (int i = 0; i < Phases; i++)
+			_history[i][slot] = _current.getAndSet(i, 0);
+
+		if (_allocEnd == -1) endAllocation();
+		_allocHistory[slot] = _allocStart == -1 ? 0 : _allocEnd - _allocStart;
+
+		Arrays.fill(_cellsPerLevel, 0);
+		S.CountCells(_cellsPerLevel);
+
+		_frames ++;
+	}
+
+	/**
+	 * Get the frame rate based on the duration of the last frame
+	 * @return frames per second
+	 */
+	public static int getFPS()
+	{
+		return _fps;
+	}
+
+	/**
+	 * Get the duration of the first frame
+	 * @return the duration in seconds, or -1 if no frame has completed
+	 */
+	public static double getFirstFrameTime()
+	{
+		return _firstFrameTime;
+	}
+
+	/**
+	 * Get the number of frames held in the history
+	 * @return the number of frames
+	 */
+	public static int getFrameCount()
+	{
+		return Math.min(_frames, HistoryLength);
+	}
+
+	/**
+	 * Get a percentile of the time spent in a phase over recent frames
+	 * @param phase The phase index
+	 * @param p The percentile, from 0 to 100
+	 * @return The time in milliseconds
+	 */
+	public static float percentile(int phase, double p)
+	{
+		return Percentile(_history[phase], p) / 1000000f;
+	}
+
+	/**
+	 * Get a percentile of the memory allocated by the draw thread over recent frames
+	 * @param p The percentile, from 0 to 100
+	 * @return The allocation in bytes
+	 */
+	public static long allocationPercentile(double p)
+	{
+		return Percentile(_allocHistory, p);
+	}
+
+	/**
+	 * Get the number of cells at each level of detail at the end of the last frame
+	 * @return cell counts indexed by level
+	 */
+	public static int[] getCellsPerLevel()
+	{
+		return _cellsPerLevel;
+	}
+
+	/**
+	 * Discard all recorded frames
+	 */
+	public static void reset()
+	{
+		for (long[] h : _history) Arrays.fill(h, 0);
+		Arrays.fill(_allocHistory, 0);
+		Arrays.fill(_cellsPerLevel, 0);
+		for (int i = 0; i < Phases; i++) _current.set(i, 0);
+		_frames = 0;
+	}
+
+	/**
+	 * Write each recent frame as a row of comma separated values, oldest first.  Times are in milliseconds
+	 * @param out The destination
+	 * @throws IOException if the destination cannot be written
+	 */
+	public static void exportCSV(Writer out) throws IOException
+	{
+		out.write("frame");
+		for (String name : PhaseNames) out.write("," + name);
+		out.write(",Allocated Bytes\n");
+
+		int count = getFrameCount();
+		for (int f = _frames - count; f < _frames; f++)
+		{
+			int slot = f % HistoryLength;
+			out.write(Integer.toString(f));
+			for (int i = 0; i < Phases; i++) out.write("," + _history[i][slot] / 1000000f);
+			out.write("," + _allocHistory[slot] + "\n");
+		}
+	}
+
+	/**
+	 * Write a summary of recent frames as JSON.  Times are in milliseconds
+	 * @param out The destination
+	 * @throws IOException if the destination cannot be written
+	 */
+	public static void exportJSON(Writer out) throws IOException
+	{
+		out.write("{\n  \"frames\": " + getFrameCount() + ",\n  \"phases\": {\n");
+		for (int i = 0; i < Phases; i++)
+		{
+			out.write("    \"" + PhaseNames[i] + "\": {\"p50\": " + percentile(i, 50) + ", \"p99\": " + percentile(i, 99) +
+					", \"max\": " + percentile(i, 100) + "}" + (i < Phases - 1 ? "," : "") + "\n");
+		}
+		out.write("  },\n  \"allocatedBytes\": {\"p50\": " + allocationPercentile(50) + ", \"p99\": " + allocationPercentile(99) +
+				", \"max\": " + allocationPercentile(100) + "},\n");
+		out.write("  \"cellsPerLevel\": " + Arrays.toString(_cellsPerLevel) + "\n}\n");
+	}
+
+	//Value at the specified percentile of the frames held in a history, using the nearest rank
+	private static long Percentile(long[] history, double p)
+	{
+		int count = getFrameCount();
+		if (count == 0) return 0;
+
+		long[] sorted = Arrays.copyOf(history, count);
+		Arrays.sort(sorted);
+
+		int rank = (int) Math.ceil(p / 100 * count) - 1;
+		return sorted[Math.max(0, Math.min(count - 1, rank))];
+	}
+
+	//Total bytes allocated by the calling thread, or 0 if the virtual machine cannot measure it
+	private static long allocatedBytes()
+	{
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+
+		if (bean instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+
+		return 0;
+	}
+}
@@ -1,10 +1,18 @@
 package TerrainBase;
 
 import processing.core.PApplet;
+import processing.core.PVector;
 
 public class Scaffold {
 	Cell _rootCell;  //The root of the geometry tree
 	Patch _rootPatch;//A root patch
+	LODScheduler _scheduler = new LODScheduler(); //Background builder for additional levels of detail
+	PatchCache _patchCache = new PatchCache(Helpers.PatchCacheCapacity); //Patches removed from the scaffold that may be restored
+	Viewpoint _viewpoint; //Position levels of detail are calculated from.  The camera is used if not set
+	PVector _viewPosition = new PVector(); //Snapshot of the viewpoint position taken at the start of each update
+	float _horizonDistance = -1; //Distance from the viewpoint to the horizon of the planet.  -1 if there is no horizon
+	PVector _occluderCentre = new PVector(); //Centre of the solid sphere reported by the density field for horizon culling
+	float _occluderRadius = 0; //Radius of the solid sphere, or 0 if the density field reports none
 	
 	/**
 	 * Create a default scaffold with the following properties: 
@@ -15,7 +23,18 @@ public class Scaffold {
 	public Scaffold(int Resolution)
 	{
 		//Call chained constructor using preset values
-		this(0, 0, 0, Helpers.EarthDiameter, Helpers.EarthDiameter, Helpers.EarthDiameter, Resolution, Resolution, Resolution);		
+		this(0, 0, 0, Helpers.EarthDiameter, Helpers.EarthDiameter, Helpers.EarthDiameter, Resolution, Resolution, Resolution, null);		
+	}
+	
+	/**
+	 * Create a default scaffold using the specified density field to define the surface
+	 * @param Resolution Subdivisions of the root cell in each dimension
+	 * @param Field The density field defining the surface
+	 */
+	public Scaffold(int Resolution, DensityField Field)
+	{
+		//Call chained constructor using preset values
+		this(0, 0, 0, Helpers.EarthDiameter, Helpers.EarthDiameter, Helpers.EarthDiameter, Resolution, Resolution, Resolution, Field);		
 	}
 	
 	/**
@@ -29,12 +48,13 @@ public class Scaffold {
 	 * @param SubX X Subdivisions
 	 * @param SubY Y Subdivisions
 	 * @param SubZ Z Subdivisions
+	 * @param Field The density field defining the surface.  If null a sphere is used
 	 */
-	public Scaffold(float PosX, float PosY, float PosZ, float DimX, float DimY, float DimZ, int SubX, int SubY, int SubZ)
+	public Scaffold(float PosX, float PosY, float PosZ, float DimX, float DimY, float DimZ, int SubX, int SubY, int SubZ, DensityField Field)
 	{
 		
-		Helpers.CellCount = 0;
-		Helpers.PatchCount = 0;
+		Helpers.CellCount.set(0);
+		Helpers.PatchCount.set(0);
 		
 		//Create root cell, which operates as a bounding box for the sphere
 		Helpers.log(1,"Constructing root cell");
@@ -45,6 +65,11 @@ public class Scaffold {
               DimX, //X Size
               DimY, //Y Size
               DimZ); //Z Size	
+		
+		//Apply the density field before any child cells are created as they share the root cell's field 
+		if (Field != null)
+			_rootCell.setDensityField(Field);
+		_rootCell.setScaffold(this);
 		Helpers.log(1,"Root cell construction complete");
 		Helpers.log(1,"");
 		
@@ -56,13 +81,177 @@ public class Scaffold {
 		Helpers.log(1,"");
 	}
 
+	/**
+	 * Get the density field defining the surface
+	 * @return the density field
+	 */
+	public DensityField getDensityField()
+	{
+		return _rootCell.getDensityField();
+	}
+	
 	/**
 	 * Trigger update cycle logic
 	 */
 	public void update()
 	{
+		long t = Profiler.start();
+		
+		//Take a single snapshot of the viewpoint shared by every cell this frame
+		getViewpoint().getCam(_viewPosition);
+		
+		//The horizon is that of the solid sphere the density field guarantees, if any
+		_occluderRadius = getDensityField().solidSphere(_occluderCentre);
+		float altitude = PVector.dist(_viewPosition, _occluderCentre);
+		_horizonDistance = _occluderRadius > 0 && altitude > _occluderRadius ? 
+				(float)Math.sqrt(altitude * altitude - _occluderRadius * _occluderRadius) : -1;
+		
+		//Start counting levels of detail added and removed this frame
+		Helpers.LODAdds = 0;
+		Helpers.LODClears = 0;
+		
+		//Attach any patches completed in the background since the last frame before deciding what else is needed
+		_scheduler.swapIn((long)(Helpers.LODSwapBudget * 1000000));
+		
 		//Trigger update of the root cell
 		_rootCell.update();
+		
+		Profiler.stop(Profiler.Update, t);
+	}
+	
+	/**
+	 * Add the number of cells in the scaffold to a count for each level of detail
+	 * @param levels Cell counts indexed by level.  Levels beyond the end of the array are not counted
+	 */
+	public void CountCells(int[] levels)
+	{
+		levels[0]++;
+		if (_rootCell.hasChildPatch()) _rootCell.getChildPatch().CountCells(levels);
+	}
+	
+	/**
+	 * Update the scaffold until no further levels of detail are added or removed, waiting for any patches being built in 
+	 * the background.  Used to generate the scaffold for a viewpoint without a draw cycle.
+	 * @param maxPasses The maximum number of update passes
+	 * @return The number of update passes made
+	 */
+	public int refine(int maxPasses)
+	{
+		int passes = 0;
+		
+		while (passes < maxPasses)
+		{
+			update();
+			passes ++;
+			
+			if (_scheduler.pendingCount() > 0)
+			{
+				//Give the background builders time to complete before attaching their patches
+				try
+				{
+					Thread.sleep(1);
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			else if (Helpers.LODAdds == 0 && Helpers.LODClears == 0)
+				break;
+		}
+		
+		return passes;
+	}
+	
+	/**
+	 * Add the surface geometry of the scaffold at its current levels of detail to a sink, in absolute world coordinates
+	 * @param s The sink receiving the triangles
+	 */
+	public void addTriangles(TriangleSink s)
+	{
+		_rootCell.addTriangles(s, 0, 0, 0);
+	}
+	
+	/**
+	 * Get the position of the viewpoint as of the start of the current update
+	 * @return the position in absolute world coordinate space.  This is shared and must not be modified
+	 */
+	public PVector getViewPosition()
+	{
+		return _viewPosition;
+	}
+	
+	/**
+	 * Get the distance from the viewpoint to the horizon of the planet as of the start of the current update
+	 * @return the distance, or -1 if the viewpoint is inside the occluder or the density field has none
+	 */
+	public float getHorizonDistance()
+	{
+		return _horizonDistance;
+	}
+	
+	/**
+	 * Get the centre of the sphere used as the occluder for horizon culling, as of the start of the current update
+	 * @return the centre in world coordinates
+	 */
+	public PVector getOccluderCentre()
+	{
+		return _occluderCentre;
+	}
+	
+	/**
+	 * Get the radius of the sphere used as the occluder for horizon culling, as of the start of the current update
+	 * @return the radius, or 0 if the density field has no region known to be solid
+	 */
+	public float getOccluderRadius()
+	{
+		return _occluderRadius;
+	}
+	
+	/**
+	 * Get the viewpoint levels of detail are calculated from
+	 * @return the viewpoint, or the camera if no viewpoint has been set
+	 */
+	public Viewpoint getViewpoint()
+	{
+		return _viewpoint != null ? _viewpoint : Helpers.Cam;
+	}
+	
+	/**
+	 * Set the viewpoint levels of detail are calculated from
+	 * @param viewpoint the viewpoint, or null to use the camera
+	 */
+	public void setViewpoint(Viewpoint viewpoint)
+	{
+		_viewpoint = viewpoint;
+	}
+	
+	/**
+	 * Get the background builder for additional levels of detail
+	 * @return the scheduler
+	 */
+	public LODScheduler getScheduler()
+	{
+		return _scheduler;
+	}
+	
+	/**
+	 * Get the cache of patches removed from the scaffold
+	 * @return the patch cache
+	 */
+	public PatchCache getPatchCache()
+	{
+		return _patchCache;
+	}
+	
+	/**
+	 * Release the scaffold when it is being replaced, stopping any outstanding background work
+	 */
+	public void dispose()
+	{
+		_scheduler.cancel();
+		_patchCache.clear();
 	}
 
 	/**
@@ -79,8 +268,12 @@ public class Scaffold {
 	    }
     	
     	//Draw the root cell
+		long t = Profiler.start();
 		_rootCell.draw(P);
+		Profiler.stop(Profiler.Draw, t);
 		
-		Helpers.Cam.addHUD(P);
+		//The HUD builds its text every frame, so is left out of the memory allocated by the frame
+		Profiler.endAllocation();
+		Helpers.Cam.addHUD(P, this);
 	}
 }
@@ -0,0 +1,108 @@
+package TerrainBase;
+
+import processing.core.PVector;
+
+/**
+ * A density field describing a solid sphere.  The density falls linearly with distance from the centre, equalling 
+ * Helpers.DensityThreshold on the surface and changing by 1 for each radius moved inwards.  Densities are not clamped, so
+ * the crossing point of the surface can be interpolated along edges of any length.
+ * @author Philip Larby
+ *
+ */
+public class SphereField implements DensityField 
+{
+	private float _x, _y, _z;	//Centre of the sphere in world coordinates
+	private float _radius;		//Radius of the sphere
+	private float _threshold;	//Distance from the surface within which cells are retained
+	
+	/**
+	 * Construct a sphere density field
+	 * @param x X position of the centre
+	 * @param y Y position of the centre
+	 * @param z Z position of the centre
+	 * @param radius The radius of the sphere
+	 */
+	public SphereField(float x, float y, float z, float radius)
+	{
+		_x = x;
+		_y = y;
+		_z = z;
+		_radius = radius;
+		_threshold = 50;
+	}
+	
+	/**
+	 * Get the radius of the sphere
+	 * @return the radius
+	 */
+	public float getRadius()
+	{
+		return _radius;
+	}
+	
+	@Override
+	public float solidSphere(PVector centre)
+	{
+		centre.set(_x, _y, _z);
+		return _radius;
+	}
+
+	@Override
+	public float density(float x, float y, float z) 
+	{
+		return Helpers.DensityThreshold + (_radius - distance(x, y, z)) / _radius;
+	}
+
+	@Override
+	public void density(float[] x, float[] y, float[] z, float[] out, int count) 
+	{
+		float threshold = Helpers.DensityThreshold;
+		float scale = 1 / _radius;
+		
+		for (int i = 0; i < count; i++)
+		{
+			float dx = x[i] - _x;
+			float dy = y[i] - _y;
+			float dz = z[i] - _z;
+			out[i] = threshold + (_radius - (float)Math.sqrt(dx * dx + dy * dy + dz * dz)) * scale;
+		}
+	}
+
+	/**
+	 * Determine if the surface of the sphere passes close to the cell by comparing the distance of the nearest and furthest 
+	 * corners from the centre.  Returns 1 if it does and 0 if it does not.
+	 */
+	@Override
+	public float cellDensity(float x, float y, float z, float xBounds, float yBounds, float zBounds) 
+	{
+		float min = Float.MAX_VALUE;
+		float max = 0;
+		
+		for (int i = 0; i < 8; i++)
+		{
+			float d = distance(
+					x + ((i & 1) == 0 ? -xBounds : xBounds) / 2, 
+					y + ((i & 2) == 0 ? -yBounds : yBounds) / 2, 
+					z + ((i & 4) == 0 ? -zBounds : zBounds) / 2);
+			
+			min = Math.min(min, d);
+			max = Math.max(max, d);
+		}
+		
+		//the cell is not within the threshold distance of the base radius then discard it
+		if (max < _radius - _threshold || min > _radius + _threshold)
+			return 0;
+		else
+			return 1;
+	}
+	
+	//Distance of a point from the centre of the sphere
+	private float distance(float x, float y, float z)
+	{
+		float dx = x - _x;
+		float dy = y - _y;
+		float dz = z - _z;
+		
+		return (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+	}
+}
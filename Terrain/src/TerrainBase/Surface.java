@@ -1,9 +1,7 @@
 package TerrainBase;
 
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.Map;
-import java.util.ArrayList; 
+import java.util.Arrays;
 
 /**
  * A collection of helper methods to help with surface generation
@@ -12,18 +10,110 @@ import java.util.ArrayList;
  */
 public class Surface {
 	
-	//Holder for edge bisection data.  The map key holds an integer identifying a specific 
-	//arrangement of vertices that are inside or outside the surface. The first 8 bits of the 
-	//key value identify the state of the vertices with 1 identifying the vertex lies inside
-	//the surface and 0 indicating it lies outside.  The Map value identifies which edges are 
-	//bisected by the surface for the specific arrangement of vertices in a similar fashion 
-	//using the first 12 bits of the 16 bit value
-	private static Map<Short, Short> _edgeBisection;
+	//Pair of vertices joined by each of the 12 edges, as a bit pattern with bit n set for vertex n.  Edge numbers and 
+	//vertex numbers are as per the diagram in the project submission
+	private static final int[] _edgeVertexPairs = new int[] {
+		0b00000011,		//E0 - Vertex 0 & 1
+		0b00000110,		//E1 - Vertex 1 & 2
+		0b00001100,		//E2 - Vertex 2 & 3
+		0b00001001,		//E3 - Vertex 3 & 0
+		0b00010001,		//E4 - Vertex 0 & 4
+		0b00100010,		//E5 - Vertex 1 & 5
+		0b01000100,		//E6 - Vertex 2 & 6
+		0b10001000,		//E7 - Vertex 3 & 7
+		0b01100000,		//E8 - Vertex 5 & 6
+		0b11000000,		//E9 - Vertex 6 & 7
+		0b10010000,		//E10 - Vertex 4 & 7
+		0b00110000};	//E11 - Vertex 5 & 4
 	
-	//A matrix identifying which vertices are adjacent to which other vertices. The first value 
-	//is a single integer identifying the vertex number as per the diagram in the project submission
-	//the second is an array of three integer values identifying the three adjacent vertices.
-	private static int[][] _vertexAdjacencies;
+	//Edge bisection lookup table.  The array index is an 8 bit pattern identifying the vertices inside the surface, and 
+	//the value identifies which edges are bisected by the surface using the first 12 bits of the 16 bit value.
+	//Built during class initialisation so it is safely shared by cells constructed on different threads
+	private static final short[] _edgeBisection = new short[256];
+	
+	static
+	{
+		//There are 12 edges in a cube that may be bisected by the surface.  These can be identified by cases where adjacent vertices 
+		//do not share the same inside/outside state.  There could be false positives if an edge is bisected twice by a surface loop 
+		//between the vertices.  This is not being accounted for in this case.  
+		for (int i = 0; i < 256; i++)
+		{
+			int bisectionMask = 0;
+			
+			//Flag the edge as bisected if only one of the vertices it joins is in the vertex pattern
+			for (int e = 0; e < 12; e++)
+			{
+				int pair = _edgeVertexPairs[e];
+				if ((pair & i) != pair && (pair & i) != 0)
+					bisectionMask |= 1 << e;
+			}
+			
+			_edgeBisection[i] = (short)bisectionMask;
+		}
+	}
+	
+	//A matrix identifying which vertices are adjacent to which other vertices. The first index is the vertex number as 
+	//per the diagram in the project submission and the second holds the three adjacent vertices
+	private static final int[][] _vertexAdjacencies = new int[][] {
+		{1, 3, 4}, {0, 2, 5}, {1, 3, 6}, {0, 2, 7},
+		{0, 5, 7}, {1, 4, 6}, {2, 5, 7}, {3, 4, 6}};
+	
+	//The four edges sharing a vertex with each edge
+	private static final int[][] _edgeAdjacencies = new int[][] {
+		{1, 3, 4, 5}, {0, 2, 5, 6}, {1, 3, 6, 7}, {0, 2, 4, 7},
+		{0, 3, 10, 11}, {0, 1, 8, 11}, {1, 2, 8, 9}, {2, 3, 9, 10},
+		{5, 6, 9, 11}, {6, 7, 8, 10}, {4, 7, 9, 11}, {4, 5, 8, 10}};
+	
+	//Centre point of each of the 12 edges of a unit cell, indexed by edge number.  Matches the layout used by
+	//Cell.buildEdgeCentreVertex so that loops derived from these points are valid for any cubic cell
+	private static final float[][] _unitEdgeCentres = new float[][] {
+		{0, 0.5f, -0.5f},		//E0
+		{0.5f, 0.5f, 0},		//E1
+		{0, 0.5f, 0.5f},		//E2
+		{-0.5f, 0.5f, 0},		//E3
+		{-0.5f, 0, -0.5f},		//E4
+		{0.5f, 0, -0.5f},		//E5
+		{0.5f, 0, 0.5f},		//E6
+		{-0.5f, 0, 0.5f},		//E7
+		{0.5f, -0.5f, 0},		//E8
+		{0, -0.5f, 0.5f},		//E9
+		{-0.5f, -0.5f, 0},		//E10
+		{0, -0.5f, -0.5f}};		//E11
+	
+	//Position of each of the 8 vertices on the lattice of a patch, as an offset in each dimension from the lowest
+	//corner of the cell.  Matches the layout used by Cell.getBoundingVertex
+	private static final int[][] _vertexLatticeOffsets = new int[][] {
+		{0, 1, 0}, {1, 1, 0}, {1, 1, 1}, {0, 1, 1},
+		{0, 0, 0}, {1, 0, 0}, {1, 0, 1}, {0, 0, 1}};
+	
+	//Position of each of the 12 edges on the lattice of a patch.  The first three values are the offset from the lowest 
+	//corner of the cell to the lowest end of the edge and the fourth is the axis the edge runs along (0 = x, 1 = y, 2 = z)
+	private static final int[][] _edgeLatticeOffsets = new int[][] {
+		{0, 1, 0, 0},	//E0 - Vertex 0 & 1
+		{1, 1, 0, 2},	//E1 - Vertex 1 & 2
+		{0, 1, 1, 0},	//E2 - Vertex 3 & 2
+		{0, 1, 0, 2},	//E3 - Vertex 0 & 3
+		{0, 0, 0, 1},	//E4 - Vertex 4 & 0
+		{1, 0, 0, 1},	//E5 - Vertex 5 & 1
+		{1, 0, 1, 1},	//E6 - Vertex 6 & 2
+		{0, 0, 1, 1},	//E7 - Vertex 7 & 3
+		{1, 0, 0, 2},	//E8 - Vertex 5 & 6
+		{0, 0, 1, 0},	//E9 - Vertex 7 & 6
+		{0, 0, 0, 2},	//E10 - Vertex 4 & 7
+		{0, 0, 0, 0}};	//E11 - Vertex 4 & 5
+	
+	//Triangle strip lookup table.  The array index is an 8 bit pattern identifying the vertices in a single vertex 
+	//group and the value is the shortest closed loop through the edges bisected by that group, in drawing order.
+	//Built once on first use of the class so cell construction only needs a table lookup
+	private static final int[][] _edgeLoops = BuildEdgeLoopTable();
+	
+	//Vertex group lookup table.  The array index is an 8 bit pattern identifying the vertices inside the surface and the 
+	//value holds an 8 bit pattern for each group of connected vertices, ordered by the lowest vertex in the group
+	private static final int[][] _vertexGroups = BuildVertexGroupTable();
+	
+	//Triangle lookup table.  The array index is an 8 bit pattern identifying the vertices inside the surface and the value 
+	//lists the bisected edges at the corners of each triangle, three to a triangle.  Must follow the tables it is built from
+	private static final int[][] _edgeTriangles = BuildEdgeTriangleTable();
 	
 	/**
 	 * Identify the edges that are bisected for a specific configuration of vertices that lie inside or outside
@@ -36,165 +126,243 @@ public class Surface {
 	 */
 	public static int getBisectedEdges(short VertexPattern)
 	{		
-		if (_edgeBisection == null)
-			_edgeBisection = BuildEdgeBisectionTable();
-		
-		return _edgeBisection.get(VertexPattern); 
+		return _edgeBisection[VertexPattern & 0xFF]; 
 	}
 	
 	/**
-	 * Create an edge bisection table for use with the marching cube surface extraction algorithm.  This is a lookup table 
-	 * that identifies which cube edges are bisected by a surface for all possible combinations of corner vertices existing
-	 * inside of outside the surface structure.  When creating triangle meshes, all bisected edges must have an associated 
-	 * triangle edge
+	 * Get the two vertices joined by an edge
+	 * @param EdgeIndex The edge number as defined in the project documentation
+	 * @return The vertex numbers at either end of the edge, lowest first.  The returned array is shared and must not be modified
 	 */
-	public static Map<Short, Short> BuildEdgeBisectionTable()
+	public static int[] getEdgeVertices(int EdgeIndex)
 	{
-		//There are 12 edges in a cube that may be bisected by the surface.  These can be identified by cases where adjacent vertices 
-		//do not share the same inside/outside state.  There could be false positives if an edge is bisected twice by a surface loop 
-		//between the vertices.  This is not being accounted for in this case.  
-		
-		if (_edgeBisection != null) return _edgeBisection;
-		
-		//Container allowing index lookup of edges joining vertex pairs.  First integer host a bit pattern
-		//specifiying a pair of vertices.  The second integer identifies the edge that joins the vertices.
-		Map<Integer, Integer> vertexMap = new HashMap<Integer, Integer>();
-		
-		//Populate the vertex adjacency map.  
-		//Map key identifies a pair of adjacent vertices by the position as per the documentation
-		//Map Value is the identifier of the edge joining the vertices as per the documentation
-		vertexMap.put(Integer.parseInt("00000011", 2), 0); 	//Vertex 0 & 1 - Edge 0 
-		vertexMap.put(Integer.parseInt("00000110", 2), 1);	//Vertex 1 & 2 - Edge 1 
-		vertexMap.put(Integer.parseInt("00001100", 2), 2);	//Vertex 2 & 3 - Edge 2 
-		vertexMap.put(Integer.parseInt("00001001", 2), 3);	//Vertex 3 & 0 - Edge 3 
-		vertexMap.put(Integer.parseInt("00010001", 2), 4);	//Vertex 0 & 4 - Edge 4 
-		vertexMap.put(Integer.parseInt("00100010", 2), 5);	//Vertex 1 & 5 - Edge 5 
-		vertexMap.put(Integer.parseInt("01000100", 2), 6);	//Vertex 2 & 6 - Edge 6 
-		vertexMap.put(Integer.parseInt("10001000", 2), 7);	//Vertex 3 & 7 - Edge 7 
-		vertexMap.put(Integer.parseInt("01100000", 2), 8);	//Vertex 5 & 6 - Edge 8  
-		vertexMap.put(Integer.parseInt("11000000", 2), 9);	//Vertex 6 & 7 - Edge 9 
-		vertexMap.put(Integer.parseInt("10010000", 2), 10);	//Vertex 4 & 7 - Edge 10 
-		vertexMap.put(Integer.parseInt("00110000", 2), 11);	//Vertex 5 & 4 - Edge 11 
-		
-		Map<Short, Short> bisectionMap = new HashMap<Short, Short>();
-		
-		//Use the first 12 bits of a 16-bit integer to store the edge state.  The 2^n 
-		//position of the bit corresponds to the cube diagram in the report where n = the edge label. 
-		//A 1 indicates the edge is bisected by the surface and a 0 indicates it is not
-		short bisectionMask;
+		return Bits.Indices(_edgeVertexPairs[EdgeIndex]);
+	}
+	
+	/**
+	 * Get the edges bisected by a single group of connected vertices, ordered as the shortest closed loop around the group.  
+	 * The centre points of these edges, taken in order, define the triangle strip drawn for the group.
+	 * @param GroupPattern An 8 bit pattern identifying the vertices that make up the vertex group
+	 * @return The edge numbers in drawing order.  The returned array is shared and must not be modified
+	 */
+	public static int[] getEdgeLoop(int GroupPattern)
+	{
+		return _edgeLoops[GroupPattern];
+	}
+	
+	/**
+	 * Get the triangles of the surface for a pattern of vertices inside the surface.  The loop of edges around each vertex 
+	 * group is split into a fan of triangles from its first edge, so the triangles can be drawn as a list without further
+	 * tessellation.
+	 * @param VertexPattern An 8 bit pattern identifying which corner vertices exist inside the surface
+	 * @return The edge numbers at the corners of each triangle, three to a triangle.  The returned array is shared and must 
+	 * not be modified
+	 */
+	public static int[] getEdgeTriangles(int VertexPattern)
+	{
+		return _edgeTriangles[VertexPattern];
+	}
+	
+	/**
+	 * Get the groups of connected vertices for a pattern of vertices inside the surface.  Each group requires a separate
+	 * triangle strip.
+	 * @param VertexPattern An 8 bit pattern identifying which corner vertices exist inside the surface
+	 * @return An 8 bit pattern for each vertex group.  The returned array is shared and must not be modified
+	 */
+	public static int[] getVertexGroups(int VertexPattern)
+	{
+		return _vertexGroups[VertexPattern];
+	}
+	
+	/**
+	 * Get the position of a vertex on the lattice of a patch
+	 * @param VertexIndex The vertex number as defined in the project documentation
+	 * @return The offset in x, y and z from the lowest corner of the cell.  The returned array is shared and must not be modified
+	 */
+	public static int[] getVertexLatticeOffset(int VertexIndex)
+	{
+		return _vertexLatticeOffsets[VertexIndex];
+	}
+	
+	/**
+	 * Get the position of an edge on the lattice of a patch
+	 * @param EdgeIndex The edge number as defined in the project documentation
+	 * @return The offset in x, y and z from the lowest corner of the cell to the lowest end of the edge, followed by the axis 
+	 * the edge runs along.  The returned array is shared and must not be modified
+	 */
+	public static int[] getEdgeLatticeOffset(int EdgeIndex)
+	{
+		return _edgeLatticeOffsets[EdgeIndex];
+	}
+	
+	/**
+	 * Create the vertex group lookup table by flood filling through adjacent vertices for all 256 vertex patterns
+	 * @return an array of vertex group patterns indexed by vertex pattern
+	 */
+	private static int[][] BuildVertexGroupTable()
+	{
+		int[][] groups = new int[256][];
+		int[] found = new int[8];
 		
-		//Iterate through all 256 possible vertex combinations, comparing the vertices to the generated 
-		//table to derive mappings for all possible cube states
-		for (Short i = 0; i < 256; i++)
+		for (int i = 0; i < 256; i++)
 		{
-			//Bisection mask holds 
-			bisectionMask = 0; 
+			int remaining = i;
+			int count = 0;
 			
-			//Check the current vertex pattern against the adjacency table entries.  If adjacent vertices are in 
-			//different states then assume a bisection occurs and record this in the bisection mask
-			for (Map.Entry<Integer, Integer> entry : vertexMap.entrySet()) {
-			    int key = entry.getKey();
-			    
-			    //Check if only one of the adjacent vertices exists in the vertex pattern. If so, then flag the 
-			    //edge as bisected.  If the edge is already flagged the leave in current state
-			    if((key & i) != key && (key & i) != 0)
-			    	bisectionMask = (short)(bisectionMask | (int)(Math.pow(2, entry.getValue())));
+			//Start a new group from the lowest vertex not yet grouped
+			while (remaining != 0)
+			{
+				int group = 0;
+				int next = Integer.lowestOneBit(remaining);
+				
+				//Grow the group through adjacent vertices until no further vertices are added
+				while (next != 0)
+				{
+					group |= next;
+					next = 0;
+					
+					for (int v = 0; v < 8; v++)
+					{
+						if ((group >> v & 1) == 0) continue;
+						
+						for (int a : getAdjacentVertiexIDs(v))
+						{
+							if ((remaining >> a & 1) == 1 && (group >> a & 1) == 0)
+								next |= 1 << a;
+						}
+					}
+				}
+				
+				found[count++] = group;
+				remaining &= ~group;
 			}
 			
-			//Store the bisection information for the current vertex pattern in the lookup table
-			bisectionMap.put(i, bisectionMask);
+			groups[i] = Arrays.copyOf(found, count);
 		}
 		
-		return bisectionMap;
+		return groups;
 	}
 	
-	//TODO:  create a local variable to avoid reconstructing array for each call
-	private static int[][] getAdjacencyMatrix()
+	/**
+	 * Create the triangle lookup table by splitting the edge loop of each vertex group into a fan
+	 * @return an array of edge triangles indexed by vertex pattern
+	 */
+	private static int[][] BuildEdgeTriangleTable()
 	{
-		int[][] Adjacencies = new int[8][3]; //First index identifies vertex number
-											 //Second index identifies the three adjacent vertices
-		
-		//Manually create edge adjacency table for the edge numbering system in use
-		Adjacencies[0][0] = 1 ;
-		Adjacencies[0][1] = 3 ;
-		Adjacencies[0][2] = 4 ;
-		
-		Adjacencies[1][0] = 0 ;
-		Adjacencies[1][1] = 2 ;
-		Adjacencies[1][2] = 5 ;
-	
-		Adjacencies[2][0] = 1 ;
-		Adjacencies[2][1] = 3 ;
-		Adjacencies[2][2] = 6 ;
+		int[][] triangles = new int[256][];
 		
-		Adjacencies[3][0] = 0 ;
-		Adjacencies[3][1] = 2 ;
-		Adjacencies[3][2] = 7 ;
-		
-		Adjacencies[4][0] = 0 ;
-		Adjacencies[4][1] = 5 ;
-		Adjacencies[4][2] = 7 ;
-		
-		Adjacencies[5][0] = 1 ;
-		Adjacencies[5][1] = 4 ;
-		Adjacencies[5][2] = 6 ;
-		
-		Adjacencies[6][0] = 2 ;
-		Adjacencies[6][1] = 5 ;
-		Adjacencies[6][2] = 7 ;
-		
-		Adjacencies[7][0] = 3 ;
-		Adjacencies[7][1] = 4 ;
-		Adjacencies[7][2] = 6 ;
+		for (int i = 0; i < 256; i++)
+		{
+			//A loop of n edges gives n - 2 triangles
+			int count = 0;
+			for (int group : _vertexGroups[i])
+				count += Math.max(0, _edgeLoops[group].length - 2) * 3;
+			
+			triangles[i] = new int[count];
+			count = 0;
+			
+			for (int group : _vertexGroups[i])
+			{
+				int[] loop = _edgeLoops[group];
+				
+				for (int j = 1; j < loop.length - 1; j++)
+				{
+					triangles[i][count++] = loop[0];
+					triangles[i][count++] = loop[j];
+					triangles[i][count++] = loop[j + 1];
+				}
+			}
+		}
 		
-		return Adjacencies;
+		return triangles;
 	}
 	
 	/**
-	 * Get the IDs of the three vertices directly adjacent to the specified vertex
-	 * @param nodeID The ID of the vertex being queried.  IDs are specified in the project documentation
-	 * @return The IDs of the three adjacent vertices
+	 * Create the triangle strip lookup table for all 256 possible vertex group patterns.  For each pattern the bisected edges are 
+	 * found and every cyclic ordering is tested to find the shortest loop between the edge centre points of a unit cell.  
+	 * As the loop is closed, the first edge is fixed and only orderings of the remaining edges are searched.
+	 * @return an array of edge loops indexed by vertex group pattern
 	 */
-	public static int[] getAdjacentVertiexIDs(int nodeID)
+	private static int[][] BuildEdgeLoopTable()
 	{
-		//Return the values directly from the adjacency array.
-		return new int[] {
-				getAdjacencyMatrix()[nodeID][0], 
-				getAdjacencyMatrix()[nodeID][1], 
-				getAdjacencyMatrix()[nodeID][2]};
+		int[][] loops = new int[256][];
+		
+		for (int i = 0; i < 256; i++)
+		{
+			int[] edges = Bits.Indices(getBisectedEdges((short)i)).clone();
+			
+			//Loops of 3 or fewer edges have only one cyclic ordering so no search is required
+			if (edges.length > 3)
+			{
+				int[] best = edges.clone();
+				SearchEdgeLoop(edges, 1, 0, best, new float[] {Float.MAX_VALUE});
+				edges = best;
+			}
+			
+			loops[i] = edges;
+		}
+		
+		return loops;
 	}
-
-	/**
-	 * Converts the binary form of an unsigned integer into an array of integers where each number corresponds 
-	 * with a 1 in the pattern of bits. Note the least significant bit is translated to position 0, the next to postition 1 etc.
-	 * @param bm The integer being evaluated
-	 * @return The position of all the 1s in the specified integers binary representation
-	 */
-	public static int[] BitsToIntegers(int bm)
+	
+	//Recursive depth first search of all orderings of edges beyond position n, recording the shortest closed loop in best.
+	//Length holds the length of the path so far and shortest holds the length of the best complete loop found
+	private static void SearchEdgeLoop(int[] edges, int n, float length, int[] best, float[] shortest)
 	{
-		ArrayList<Integer> ints = new ArrayList<Integer>();
-		int[] ret;
+		//Abandon any path that is already longer than the best complete loop
+		if (length >= shortest[0]) return;
 		
-		for (int i = 0; i < 16; i++)
+		if (n == edges.length)
 		{
-			if (((int)Math.pow(2, i) & bm) == (int)Math.pow(2, i))
-				ints.add(i);
+			//Add the distance from the last edge back to the start to close the loop
+			length += EdgeCentreDistance(edges[n - 1], edges[0]);
+			
+			if (length < shortest[0])
+			{
+				shortest[0] = length;
+				System.arraycopy(edges, 0, best, 0, edges.length);
+			}
+			return;
 		}
 		
-		ret = new int[ints.size()];
-		
-		for (int i = 0; i < ret.length; i++)
+		for (int i = n; i < edges.length; i++)
 		{
-			ret[i] = ints.get(i);
+			swap(edges, i, n);
+			SearchEdgeLoop(edges, n + 1, length + EdgeCentreDistance(edges[n - 1], edges[n]), best, shortest);
+			swap(edges, n, i);
 		}
+	}
+	
+	//Distance between the centre points of two edges of a unit cell
+	private static float EdgeCentreDistance(int a, int b)
+	{
+		float x = _unitEdgeCentres[a][0] - _unitEdgeCentres[b][0];
+		float y = _unitEdgeCentres[a][1] - _unitEdgeCentres[b][1];
+		float z = _unitEdgeCentres[a][2] - _unitEdgeCentres[b][2];
 		
-		return ret;
+		return (float)Math.sqrt(x * x + y * y + z * z);
 	}
 	
+	private static void swap(int[] values, int a, int b)
+	{
+		int t = values[a];
+		values[a] = values[b];
+		values[b] = t;
+	}
 	
+	/**
+	 * Get the IDs of the three vertices directly adjacent to the specified vertex
+	 * @param nodeID The ID of the vertex being queried.  IDs are specified in the project documentation
+	 * @return The IDs of the three adjacent vertices.  The returned array is shared and must not be modified
+	 */
+	public static int[] getAdjacentVertiexIDs(int nodeID)
+	{
+		return _vertexAdjacencies[nodeID];
+	}
+
 	public static Integer[] orderEdges (int bm)
 	{
-		return orderEdges(BitsToIntegers(bm));
+		return orderEdges(Bits.Indices(bm & 0xFFFF));
 	}
 	
 	/**
@@ -240,29 +408,15 @@ public class Surface {
 	/**
 	 * Return the IDs of the 4 adjacent edges
 	 * @param edgeID
-	 * @return
+	 * @return The adjacent edge IDs.  The returned array is shared and must not be modified
 	 */
 	public static int[] getAdjacentEdges(int edgeID)
 	{
-		switch(edgeID)
-		{
-			case 0: return new int[] {1, 3, 4, 5};
-			case 1: return new int[] {0, 2, 5, 6};	
-			case 2: return new int[] {1, 3, 6, 7};	
-			case 3: return new int[] {0, 2, 4, 7};	
-			case 4: return new int[] {0, 3, 10, 11};	
-			case 5: return new int[] {0, 1, 8, 11};	
-			case 6: return new int[] {1, 2, 8, 9};	
-			case 7: return new int[] {2, 3, 9, 10};	
-			case 8: return new int[] {5, 6, 9, 11};	
-			case 9: return new int[] {6, 7, 8, 10};	
-			case 10: return new int[] {4, 7, 9, 11};	
-			case 11: return new int[] {4, 5, 8, 10};	
-			default:
-				throw new RuntimeException("invalid edge id specified");
-		}
-	}
-	
+		if (edgeID < 0 || edgeID >= _edgeAdjacencies.length)
+			throw new RuntimeException("invalid edge id specified");
+		
+		return _edgeAdjacencies[edgeID];
+	}	
 	/**
 	 * Create instances of all cell configuration for lookup purposes.  
 	 * @return
@@ -0,0 +1,195 @@
+package TerrainBase;
+
+import processing.core.PVector;
+
+/**
+ * A density field describing a planet with terrain.  The surface is a sphere displaced by fractal Brownian motion (fBm) - 
+ * several octaves of value noise at increasing frequency and decreasing amplitude.  The density falls linearly with 
+ * height above the displaced surface, equalling Helpers.DensityThreshold on the surface and changing by 1 for each radius 
+ * moved.  Points further than the amplitude from sea level are measured from sea level instead, which is cheaper and 
+ * still gives the correct side of the surface.  The noise is self contained and thread safe, so does not 
+ * need a PApplet.
+ * @author Philip Larby
+ *
+ */
+public class TerrainField implements DensityField 
+{
+	private float _x, _y, _z;	//Centre of the planet in world coordinates
+	private float _radius;		//Radius of the planet at sea level
+	private float _amplitude;	//Maximum height of terrain above or below sea level
+	private float _frequency;	//Frequency of the first octave of noise, in world units
+	private int _octaves;		//Number of octaves of noise summed
+	private int _seed;			//Seed for the noise function
+	private float _threshold;	//Distance from the surface within which cells are retained
+	
+	/**
+	 * Construct a terrain field with default noise settings for a planet of the specified radius
+	 * @param x X position of the centre
+	 * @param y Y position of the centre
+	 * @param z Z position of the centre
+	 * @param radius The radius of the planet at sea level
+	 */
+	public TerrainField(float x, float y, float z, float radius)
+	{
+		this(x, y, z, radius, radius / 50, 4 / radius, 8, 0);
+	}
+	
+	/**
+	 * Construct a terrain field
+	 * @param x X position of the centre
+	 * @param y Y position of the centre
+	 * @param z Z position of the centre
+	 * @param radius The radius of the planet at sea level
+	 * @param amplitude The maximum height of terrain above or below sea level
+	 * @param frequency The frequency of the first octave of noise
+	 * @param octaves The number of octaves of noise
+	 * @param seed Seed for the noise function
+	 */
+	public TerrainField(float x, float y, float z, float radius, float amplitude, float frequency, int octaves, int seed)
+	{
+		_x = x;
+		_y = y;
+		_z = z;
+		_radius = radius;
+		_amplitude = amplitude;
+		_frequency = frequency;
+		_octaves = octaves;
+		_seed = seed;
+		_threshold = 50;
+	}
+	
+	/**
+	 * Get the radius of the planet at sea level
+	 * @return the radius
+	 */
+	public float getRadius()
+	{
+		return _radius;
+	}
+	
+	/**
+	 * Get the maximum height of terrain above or below sea level
+	 * @return the amplitude
+	 */
+	public float getAmplitude()
+	{
+		return _amplitude;
+	}
+	
+	@Override
+	public float solidSphere(PVector centre)
+	{
+		//Terrain never dips more than the amplitude below sea level
+		centre.set(_x, _y, _z);
+		return _radius - _amplitude;
+	}
+
+	@Override
+	public float density(float x, float y, float z) 
+	{
+		float dx = x - _x;
+		float dy = y - _y;
+		float dz = z - _z;
+		float d = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+		
+		//Beyond the range of terrain heights the sign of the density is known without sampling the noise
+		if (d > _radius + _amplitude || d < _radius - _amplitude) 
+			return Helpers.DensityThreshold + (_radius - d) / _radius;
+		
+		//Sample the terrain height at the point directly below on the sea level sphere 
+		float s = _radius / d;
+		return Helpers.DensityThreshold + (_radius + height(dx * s, dy * s, dz * s) - d) / _radius;
+	}
+
+	@Override
+	public void density(float[] x, float[] y, float[] z, float[] out, int count) 
+	{
+		for (int i = 0; i < count; i++)
+			out[i] = density(x[i], y[i], z[i]);
+	}
+
+	/**
+	 * Determine if the terrain may pass through the cell by comparing the nearest and furthest corners with the range of 
+	 * terrain heights.  Returns 1 if it may and 0 if it does not.
+	 */
+	@Override
+	public float cellDensity(float x, float y, float z, float xBounds, float yBounds, float zBounds) 
+	{
+		float min = Float.MAX_VALUE;
+		float max = 0;
+		
+		for (int i = 0; i < 8; i++)
+		{
+			float dx = x + ((i & 1) == 0 ? -xBounds : xBounds) / 2 - _x;
+			float dy = y + ((i & 2) == 0 ? -yBounds : yBounds) / 2 - _y;
+			float dz = z + ((i & 4) == 0 ? -zBounds : zBounds) / 2 - _z;
+			float d = (float)Math.sqrt(dx * dx + dy * dy + dz * dz);
+			
+			min = Math.min(min, d);
+			max = Math.max(max, d);
+		}
+		
+		if (max < _radius - _amplitude - _threshold || min > _radius + _amplitude + _threshold)
+			return 0;
+		else
+			return 1;
+	}
+	
+	//Terrain height relative to sea level at a position relative to the planet centre
+	private float height(float x, float y, float z)
+	{
+		float sum = 0;
+		float amplitude = 1;
+		float frequency = _frequency;
+		float total = 0;
+		
+		for (int i = 0; i < _octaves; i++)
+		{
+			sum += amplitude * noise(x * frequency, y * frequency, z * frequency, _seed + i);
+			total += amplitude;
+			amplitude *= 0.5f;
+			frequency *= 2;
+		}
+		
+		return _amplitude * sum / total;
+	}
+	
+	//Smoothly interpolated value noise in the range -1 to 1
+	private static float noise(float x, float y, float z, int seed)
+	{
+		int xi = (int)Math.floor(x);
+		int yi = (int)Math.floor(y);
+		int zi = (int)Math.floor(z);
+		
+		float u = fade(x - xi);
+		float v = fade(y - yi);
+		float w = fade(z - zi);
+		
+		float x00 = lerp(hash(xi, yi, zi, seed), hash(xi + 1, yi, zi, seed), u);
+		float x10 = lerp(hash(xi, yi + 1, zi, seed), hash(xi + 1, yi + 1, zi, seed), u);
+		float x01 = lerp(hash(xi, yi, zi + 1, seed), hash(xi + 1, yi, zi + 1, seed), u);
+		float x11 = lerp(hash(xi, yi + 1, zi + 1, seed), hash(xi + 1, yi + 1, zi + 1, seed), u);
+		
+		return lerp(lerp(x00, x10, v), lerp(x01, x11, v), w);
+	}
+	
+	//Pseudo random value in the range -1 to 1 for a lattice point
+	private static float hash(int x, int y, int z, int seed)
+	{
+		int h = x * 374761393 + y * 668265263 + z * 1274126177 + seed * 1442695041;
+		h = (h ^ (h >>> 13)) * 1274126177;
+		h = h ^ (h >>> 16);
+		
+		return (h & 0xffff) / 32767.5f - 1;
+	}
+	
+	private static float fade(float t)
+	{
+		return t * t * (3 - 2 * t);
+	}
+	
+	private static float lerp(float a, float b, float t)
+	{
+		return a + (b - a) * t;
+	}
+}
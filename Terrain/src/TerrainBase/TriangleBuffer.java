@@ -0,0 +1,109 @@
+package TerrainBase;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Arrays;
+
+/**
+ * A growable buffer of triangle vertices.  Every three vertices make up one triangle, and each vertex is held as three
+ * consecutive coordinates along with the last normal given before it.
+ * @author Philip Larby
+ *
+ */
+public class TriangleBuffer implements TriangleSink
+{
+	private float[] _coords = new float[3 * 1024];	//Vertex coordinates
+	private float[] _normals = new float[3 * 1024];	//Normal of each vertex, laid out as the coordinates
+	private int _length = 0;						//Number of coordinates in use
+	private float _nx, _ny, _nz;					//Normal given to the next vertex
+
+	/**
+	 * Add a triangle vertex
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 */
+	@Override
+	public void vertex(float x, float y, float z)
+	{
+		if (_length + 3 > _coords.length)
+		{
+			_coords = Arrays.copyOf(_coords, _coords.length * 2);
+			_normals = Arrays.copyOf(_normals, _coords.length);
+		}
+
+		_normals[_length] = _nx;
+		_normals[_length + 1] = _ny;
+		_normals[_length + 2] = _nz;
+		_coords[_length++] = x;
+		_coords[_length++] = y;
+		_coords[_length++] = z;
+	}
+
+	/**
+	 * Set the normal given to the vertices that follow
+	 * @param x X component of the unit normal
+	 * @param y Y component of the unit normal
+	 * @param z Z component of the unit normal
+	 */
+	@Override
+	public void normal(float x, float y, float z)
+	{
+		_nx = x;
+		_ny = y;
+		_nz = z;
+	}
+
+	/**
+	 * Get the number of triangles in the buffer
+	 * @return the triangle count
+	 */
+	public int getTriangleCount()
+	{
+		return _length / 9;
+	}
+
+	/**
+	 * Get the vertex coordinates in the buffer
+	 * @return x, y and z of each vertex, three vertices to a triangle
+	 */
+	public float[] getVertices()
+	{
+		return Arrays.copyOf(_coords, _length);
+	}
+
+	/**
+	 * Get the vertex normals in the buffer
+	 * @return x, y and z of the normal of each vertex, in the same order as getVertices
+	 */
+	public float[] getNormals()
+	{
+		return Arrays.copyOf(_normals, _length);
+	}
+
+	/**
+	 * Remove all triangles from the buffer
+	 */
+	public void clear()
+	{
+		_length = 0;
+	}
+
+	/**
+	 * Write the triangles in Wavefront OBJ format
+	 * @param out The destination
+	 * @throws IOException if the destination cannot be written
+	 */
+	public void writeOBJ(Writer out) throws IOException
+	{
+		for (int i = 0; i < _length; i += 3)
+			out.write("v " + _coords[i] + " " + _coords[i + 1] + " " + _coords[i + 2] + "\n");
+
+		for (int i = 0; i < _length; i += 3)
+			out.write("vn " + _normals[i] + " " + _normals[i + 1] + " " + _normals[i + 2] + "\n");
+
+		//OBJ vertex indices start at 1.  Each vertex has its own normal so shares its index
+		for (int v = 1; v < _length / 3; v += 3)
+			out.write("f " + v + "//" + v + " " + (v + 1) + "//" + (v + 1) + " " + (v + 2) + "//" + (v + 2) + "\n");
+	}
+}
@@ -0,0 +1,29 @@
+package TerrainBase;
+
+/**
+ * Receives the surface geometry of a scaffold as a list of triangles, three vertices at a time.  Implemented by the retained
+ * shapes drawn by patches and by buffers used to export geometry.  Each vertex may be preceded by the surface normal at its
+ * position.
+ * @author Philip Larby
+ *
+ */
+public interface TriangleSink
+{
+	/**
+	 * Add a triangle vertex
+	 * @param x X position
+	 * @param y Y position
+	 * @param z Z position
+	 */
+	public void vertex(float x, float y, float z);
+	
+	/**
+	 * Set the normal given to the vertices that follow.  Sinks that do not use normals may ignore it
+	 * @param x X component of the unit normal
+	 * @param y Y component of the unit normal
+	 * @param z Z component of the unit normal
+	 */
+	public default void normal(float x, float y, float z)
+	{
+	}
+}
@@ -0,0 +1,30 @@
+package TerrainBase;
+
+import processing.core.PVector;
+
+/**
+ * A position from which a scaffold is viewed.  Levels of detail are added and removed based on the distance of each cell
+ * from the viewpoint.  The interactive camera is one viewpoint, but a scaffold can be generated without a display from any other.
+ * @author Philip Larby
+ *
+ */
+public interface Viewpoint
+{
+	/**
+	 * Get the current viewpoint position
+	 * @return the position of the viewpoint in absolute world coordinate space
+	 */
+	public PVector getCam();
+	
+	/**
+	 * Copy the current viewpoint position without allocating
+	 * @param out Receives the position of the viewpoint in absolute world coordinate space
+	 */
+	public void getCam(PVector out);
+	
+	/**
+	 * Get the volume visible from the viewpoint
+	 * @return the view frustum in absolute world coordinate space, or null if everything is treated as visible
+	 */
+	public Frustum getFrustum();
+}
@@ -1,8 +1,10 @@
 package TerrainBaseTest;
 import org.junit.Assert;
 import org.junit.Test;
+import TerrainBase.Bits;
 import TerrainBase.Cell;
 import TerrainBase.DensityVertex;
+import TerrainBase.Helpers;
 import TerrainBase.Surface;
 import processing.core.PVector;
 
@@ -410,4 +412,174 @@ public class CellTest {
 		//Confirm the cell has 3 triangle vertices
 		Assert.assertEquals(3, TriangleVerts.length);
 	}
+	
+	@Test
+	//Check the precomputed edge loop table gives a loop as short as the full permutation search for every vertex group
+	public void CheckEdgeLoopTableMatchesShortestLoop() {
+		for (int pattern = 0; pattern < 256; pattern++)
+		{
+			//Arrange
+			//-------
+			Cell c = new Cell(pattern);
+			
+			for (int g = 0; g < c.vertexGroupCount(); g++)
+			{
+				int groupPattern = 0;
+				for (DensityVertex v : c.getVertexGroup(g))
+					groupPattern |= 1 << v.getId();
+				
+				int[] edges = Bits.Indices(Surface.getBisectedEdges((short)groupPattern));
+				if (edges.length == 0) continue;
+				
+				//Act
+				//---
+				int[] expected = c.ShortestLoop(edges);
+				int[] actual = Surface.getEdgeLoop(groupPattern);
+				
+				//Assert
+				//-----
+				Assert.assertEquals("Incorrect number of edges in loop for pattern " + pattern, expected.length, actual.length);
+				Assert.assertEquals("Loop is not the shortest for pattern " + pattern, 
+						c.CalculateEdgeCycleLength(box(expected)), c.CalculateEdgeCycleLength(box(actual)), 0.0001f);
+			}
+		}
+	}
+	
+	@Test
+	//Check the precomputed triangle table uses every bisected edge of every vertex pattern, and only bisected edges
+	public void CheckEdgeTriangleTableCoversBisectedEdges() {
+		for (int pattern = 0; pattern < 256; pattern++)
+		{
+			//Arrange
+			//-------
+			int expected = Surface.getBisectedEdges((short)pattern);
+			int actual = 0;
+			
+			//Act
+			//---
+			int[] triangles = Surface.getEdgeTriangles(pattern);
+			for (int e : triangles)
+				actual |= 1 << e;
+			
+			//Assert
+			//-----
+			Assert.assertEquals("Incomplete triangle for pattern " + pattern, 0, triangles.length % 3);
+			Assert.assertEquals("Incorrect edges used for pattern " + pattern, expected, actual);
+		}
+	}
+	
+	@Test
+	//Check the surface crossing is found at the point the density reaches the threshold, assuming it changes linearly 
+	//along the edge, and is clamped to the ends of the edge
+	public void CheckCrossingPoints() {
+		//Arrange
+		//-------
+		float t = Helpers.DensityThreshold;
+		
+		//Act
+		//---
+		float midway = Helpers.Crossing(t - 0.2f, t + 0.2f);
+		float fromInside = Helpers.Crossing(1, 0);
+		float fromOutside = Helpers.Crossing(0, 1);
+		float atStart = Helpers.Crossing(t, 1);
+		float atEnd = Helpers.Crossing(0, t);
+		float beyondEnd = Helpers.Crossing(t + 0.1f, t + 0.05f);
+		float beforeStart = Helpers.Crossing(t + 0.1f, t + 0.2f);
+		float equal = Helpers.Crossing(t, t);
+		
+		//Assert
+		//------
+		Assert.assertEquals("Densities either side of the threshold", 0.5f, midway, 1e-6f);
+		Assert.assertEquals("Density falling along the edge", 1 - t, fromInside, 1e-6f);
+		Assert.assertEquals("Density rising along the edge", t, fromOutside, 1e-6f);
+		Assert.assertEquals("Threshold at the start of the edge", 0, atStart, 0);
+		Assert.assertEquals("Threshold at the end of the edge", 1, atEnd, 0);
+		Assert.assertEquals("Crossing beyond the end of the edge is not clamped", 1, beyondEnd, 0);
+		Assert.assertEquals("Crossing before the start of the edge is not clamped", 0, beforeStart, 0);
+		Assert.assertEquals("Equal densities", 0.5f, equal, 0);
+	}
+	
+	@Test
+	//Build a cell with known corner densities and a single vertex inside the surface, and check the surface vertex on each 
+	//edge leaving that vertex is interpolated from the densities at either end
+	public void CheckSurfaceVerticesAreInterpolated() {
+		//Arrange
+		//-------
+		
+		//Vertex 0 is inside the surface and every other vertex is outside, so the density reaches the threshold 60% of the 
+		//way along each edge from vertex 0
+		float[] densities = {1, 0, 0, 0, 0, 0, 0, 0};
+		
+		//Act
+		//---
+		Cell c = new Cell(0, 0, 0, 0, 2, 2, 2, null, densities);
+		
+		//Assert
+		//------
+		DensityVertex[] corners = c.getBoundingVertex();
+		
+		for (int e = 0; e < 12; e++)
+		{
+			int[] ends = Surface.getEdgeVertices(e);
+			
+			if (ends[0] != 0 && ends[1] != 0)
+			{
+				Assert.assertNull("Edge " + e + " is not bisected", c.getSurfaceVertex(e));
+				continue;
+			}
+			
+			PVector inside = corners[0];
+			PVector outside = corners[ends[0] == 0 ? ends[1] : ends[0]];
+			PVector expected = PVector.lerp(inside, outside, 0.6f);
+			PVector actual = c.getSurfaceVertex(e);
+			
+			Assert.assertEquals("Edge " + e + " X", expected.x, actual.x, 1e-6f);
+			Assert.assertEquals("Edge " + e + " Y", expected.y, actual.y, 1e-6f);
+			Assert.assertEquals("Edge " + e + " Z", expected.z, actual.z, 1e-6f);
+		}
+	}
+	
+	@Test
+	//Build a cell whose outside vertices are exactly at the threshold, and check the surface vertices are clamped to the 
+	//ends of the edges rather than lying beyond the cell
+	public void CheckSurfaceVerticesAreClampedToEdges() {
+		//Arrange
+		//-------
+		float t = Helpers.DensityThreshold;
+		float[] densities = {1, t, t, t, t, t, t, t};
+		
+		//Act
+		//---
+		Cell c = new Cell(0, 0, 0, 0, 2, 2, 2, null, densities);
+		
+		//Assert
+		//------
+		DensityVertex[] corners = c.getBoundingVertex();
+		int bisected = 0;
+		
+		for (int e = 0; e < 12; e++)
+		{
+			PVector actual = c.getSurfaceVertex(e);
+			if (actual == null) continue;
+			
+			//The crossing is at the outside end of the edge
+			int[] ends = Surface.getEdgeVertices(e);
+			PVector outside = corners[ends[0] == 0 ? ends[1] : ends[0]];
+			Assert.assertEquals("Edge " + e + " X", outside.x, actual.x, 1e-6f);
+			Assert.assertEquals("Edge " + e + " Y", outside.y, actual.y, 1e-6f);
+			Assert.assertEquals("Edge " + e + " Z", outside.z, actual.z, 1e-6f);
+			bisected++;
+		}
+		
+		Assert.assertEquals("Bisected edges", 3, bisected);
+	}
+	
+	//Convert an int array into an Integer array for use with the cycle length calculation
+	private static Integer[] box(int[] values)
+	{
+		Integer[] ret = new Integer[values.length];
+		for (int i = 0; i < values.length; i++)
+			ret[i] = values[i];
+		return ret;
+	}
 }
@@ -0,0 +1,118 @@
+package TerrainBaseTest;
+import org.junit.Assert;
+import org.junit.Test;
+import TerrainBase.Cell;
+import TerrainBase.GridPatch;
+import TerrainBase.Helpers;
+import TerrainBase.Patch;
+import TerrainBase.PatchCache;
+
+public class PatchCacheTest {
+
+	//A patch subdividing a root cell into 8 cells that the default sphere passes through
+	private static Patch smallPatch()
+	{
+		float d = Helpers.EarthDiameter;
+		return new Patch(2, 2, 2, new Cell(0, 0, 0, d, d, d));
+	}
+
+	@Test
+	//Fill a cache beyond its capacity and confirm the least recently used patch is the one evicted
+	public void CheckLeastRecentlyUsedPatchIsEvicted() {
+		//Arrange
+		//-------
+		Patch a = smallPatch();
+		Patch b = smallPatch();
+		Patch c = smallPatch();
+		int cells = a.CellCount();
+		Assert.assertEquals("Test patches should hold 8 cells", 8, cells);
+
+		//Room for two patches
+		PatchCache cache = new PatchCache(cells * 2);
+
+		//Act
+		//---
+		cache.put("a", a);
+		cache.put("b", b);
+
+		//Adding a again makes b the least recently used
+		cache.put("a", a);
+		cache.put("c", c);
+
+		//Assert
+		//------
+		Assert.assertEquals("Cells held", cells * 2, cache.size());
+		Assert.assertEquals("Evictions", 1, cache.getEvictions());
+		Assert.assertNull("Least recently used patch was not evicted", cache.take("b", true));
+		Assert.assertSame(a, cache.take("a", true));
+		Assert.assertSame(c, cache.take("c", true));
+		Assert.assertEquals("Cells held", 0, cache.size());
+	}
+
+	@Test
+	//Confirm hits and misses are counted, and that a patch can only be taken once
+	public void CheckHitsAndMissesAreCounted() {
+		//Arrange
+		//-------
+		Patch a = smallPatch();
+		PatchCache cache = new PatchCache(100);
+		cache.put("a", a);
+
+		//Act
+		//---
+		Patch first = cache.take("a", true);
+		Patch second = cache.take("a", true);
+		Patch unknown = cache.take("b", true);
+
+		//Assert
+		//------
+		Assert.assertSame(a, first);
+		Assert.assertNull(second);
+		Assert.assertNull(unknown);
+		Assert.assertEquals("Hits", 1, cache.getHits());
+		Assert.assertEquals("Misses", 2, cache.getMisses());
+		Assert.assertEquals("Evictions", 0, cache.getEvictions());
+	}
+
+	@Test
+	//Confirm a patch larger than the whole cache is not held
+	public void CheckPatchLargerThanCapacityIsNotHeld() {
+		//Arrange
+		//-------
+		float d = Helpers.EarthDiameter;
+		Patch p = new Patch(4, 4, 4, new Cell(0, 0, 0, d, d, d));
+		PatchCache cache = new PatchCache(p.CellCount() - 1);
+
+		//Act
+		//---
+		cache.put("p", p);
+
+		//Assert
+		//------
+		Assert.assertEquals("Cells held", 0, cache.size());
+		Assert.assertNull(cache.take("p", true));
+	}
+
+	@Test
+	//Confirm a grid patch is only taken for a leaf, and is left in the cache when further detail is required
+	public void CheckGridPatchIsOnlyTakenAsLeaf() {
+		//Arrange
+		//-------
+		float d = Helpers.EarthDiameter;
+		Patch g = new GridPatch(2, 2, 2, new Cell(0, 0, 0, d, d, d));
+		PatchCache cache = new PatchCache(100);
+		cache.put("g", g);
+
+		//Act
+		//---
+		Patch refinable = cache.take("g", false);
+		Patch leaf = cache.take("g", true);
+
+		//Assert
+		//------
+		Assert.assertNull("Grid patch taken for a cell needing further detail", refinable);
+		Assert.assertSame("Grid patch was not left in the cache", g, leaf);
+		Assert.assertEquals("Hits", 1, cache.getHits());
+		Assert.assertEquals("Misses", 1, cache.getMisses());
+	}
+}
@@ -0,0 +1,198 @@
+package TerrainBaseTest;
+import org.junit.Assert;
+import org.junit.Test;
+import TerrainBase.Cell;
+import TerrainBase.GridPatch;
+import TerrainBase.Helpers;
+import TerrainBase.IndexedMesh;
+import TerrainBase.Patch;
+import TerrainBase.TerrainField;
+import TerrainBase.TriangleBuffer;
+
+public class PatchTest {
+
+	@Test
+	//Build the indexed mesh of a patch and confirm it holds the same triangles as the patch's cells, with each crossing
+	//point on an edge shared between cells stored once
+	public void ValidateIndexedMeshSharesEdgeVertices() {
+		//Arrange
+		//-------
+		float d = Helpers.EarthDiameter;
+		Cell root = new Cell(0, 0, 0, d, d, d);
+		Patch p = new Patch(8, 8, 8, root);
+		
+		TriangleBuffer expected = new TriangleBuffer();
+		p.addTriangles(expected, 0, 0, 0);
+		
+		//Act
+		//---
+		IndexedMesh mesh = p.buildMesh();
+		
+		//Assert
+		//------
+		assertMeshMatches(expected, mesh, d * 1e-6f);
+	}
+	
+	@Test
+	//Build the indexed mesh of a grid patch and confirm it holds the same triangles as the grid patch draws, with each 
+	//crossing point stored once
+	public void ValidateGridPatchIndexedMesh() {
+		//Arrange
+		//-------
+		float d = Helpers.EarthDiameter;
+		Cell root = new Cell(0, 0, 0, d, d, d);
+		Patch p = new GridPatch(8, 8, 8, root);
+		
+		TriangleBuffer expected = new TriangleBuffer();
+		p.addTriangles(expected, 0, 0, 0);
+		
+		//Act
+		//---
+		IndexedMesh mesh = p.buildMesh();
+		
+		//Assert
+		//------
+		assertMeshMatches(expected, mesh, d * 1e-6f);
+	}
+	
+	@Test
+	//A grid patch should draw the same surface as a patch of cells built from the same parent, though the triangles may be 
+	//in a different order
+	public void ValidateGridPatchMatchesPatch() {
+		//Arrange
+		//-------
+		float d = Helpers.EarthDiameter;
+		Cell root = new Cell(0, 0, 0, d, d, d);
+		TriangleBuffer cells = new TriangleBuffer();
+		TriangleBuffer grid = new TriangleBuffer();
+		
+		//Act
+		//---
+		new Patch(8, 8, 8, root).addTriangles(cells, 0, 0, 0);
+		new GridPatch(8, 8, 8, root).addTriangles(grid, 0, 0, 0);
+		
+		//Assert
+		//------
+		Assert.assertEquals("Triangle count", cells.getTriangleCount(), grid.getTriangleCount());
+		Assert.assertTrue("No triangles to compare", cells.getTriangleCount() > 0);
+		
+		//Match each triangle of the patch with an unmatched triangle of the grid patch at the same position
+		float[] a = cells.getVertices();
+		float[] b = grid.getVertices();
+		boolean[] matched = new boolean[grid.getTriangleCount()];
+		
+		for (int i = 0; i < a.length; i += 9)
+		{
+			int match = -1;
+			for (int j = 0; j < b.length && match == -1; j += 9)
+				if (!matched[j / 9] && sameTriangle(a, i, b, j, d * 1e-6f))
+					match = j / 9;
+			
+			Assert.assertTrue("Triangle " + i / 9 + " of the patch is not drawn by the grid patch", match != -1);
+			matched[match] = true;
+		}
+	}
+	
+	@Test
+	//Classifying cells from the sampled lattice before building them should retain the same cells, with the same 
+	//triangles, as building every cell and then discarding those the density field reports are not near the surface
+	public void ValidatePreClassificationMatchesFullConstruction() {
+		//Arrange
+		//-------
+		//A parent cell straddling the terrain, so cells entirely above or below it are retained as well as those it passes 
+		//through
+		float r = Helpers.EarthDiameter / 2.5f;
+		float d = r / 10;
+		int res = 8;
+		Cell root = new Cell(0, 0, r, d, d, d);
+		root.setDensityField(new TerrainField(0, 0, 0, r));
+		TriangleBuffer expected = new TriangleBuffer();
+		TriangleBuffer actual = new TriangleBuffer();
+		
+		//Act
+		//---
+		Patch p = new Patch(res, res, res, root);
+		p.addTriangles(actual, 0, 0, 0);
+		
+		//Build every cell of the patch from the density field, in the same order, keeping those the cell density retains
+		float size = d / res;
+		int retained = 0;
+		
+		for (int x = 0; x < res; x++)
+			for (int y = 0; y < res; y++)
+				for (int z = 0; z < res; z++)
+				{
+					Cell c = new Cell(-d / 2 + size / 2 + size * x, -d / 2 + size / 2 + size * y, -d / 2 + size / 2 + size * z,
+							1, size, size, size, p);
+					
+					if (Helpers.Density(c) > Helpers.DensityThreshold)
+					{
+						c.addTriangles(expected, 0, 0, 0);
+						retained++;
+					}
+				}
+		
+		//Assert
+		//------
+		Assert.assertEquals("Cells retained", retained, p.CellCount());
+		Assert.assertEquals("Triangle count", expected.getTriangleCount(), actual.getTriangleCount());
+		Assert.assertTrue("No triangles to compare", actual.getTriangleCount() > 0);
+		
+		float[] e = expected.getVertices();
+		float[] a = actual.getVertices();
+		for (int i = 0; i < e.length; i++)
+			Assert.assertEquals("Vertex coordinate " + i, e[i], a[i], r * 1e-6f);
+	}
+	
+	//Check whether two triangles have the same vertices, in any order
+	private static boolean sameTriangle(float[] a, int i, float[] b, int j, float tolerance)
+	{
+		for (int v = 0; v < 9; v += 3)
+		{
+			boolean found = false;
+			for (int w = 0; w < 9 && !found; w += 3)
+				found = Math.abs(a[i + v] - b[j + w]) <= tolerance && Math.abs(a[i + v + 1] - b[j + w + 1]) <= tolerance &&
+						Math.abs(a[i + v + 2] - b[j + w + 2]) <= tolerance;
+			
+			if (!found) return false;
+		}
+		
+		return true;
+	}
+	
+	//Confirm an indexed mesh holds the same triangles as a list of triangles, in the same order, and that it holds exactly
+	//one vertex for each distinct position
+	private static void assertMeshMatches(TriangleBuffer expected, IndexedMesh mesh, float tolerance)
+	{
+		Assert.assertEquals("Triangle count", expected.getTriangleCount(), mesh.getTriangleCount());
+		Assert.assertTrue("No triangles to compare", mesh.getTriangleCount() > 0);
+		
+		//Each triangle should be at the same position as the triangle drawn by its cell
+		float[] vertices = mesh.getVertices();
+		int[] indices = mesh.getIndices();
+		float[] triangles = expected.getVertices();
+		boolean[] used = new boolean[mesh.getVertexCount()];
+		
+		for (int i = 0; i < indices.length; i++)
+		{
+			Assert.assertEquals("X", triangles[i * 3], vertices[indices[i] * 3], tolerance);
+			Assert.assertEquals("Y", triangles[i * 3 + 1], vertices[indices[i] * 3 + 1], tolerance);
+			Assert.assertEquals("Z", triangles[i * 3 + 2], vertices[indices[i] * 3 + 2], tolerance);
+			used[indices[i]] = true;
+		}
+		
+		//With every vertex used and no two at the same position, the vertex count is the number of distinct positions
+		for (int i = 0; i < used.length; i++)
+		{
+			Assert.assertTrue("Vertex " + i + " is not used", used[i]);
+			
+			for (int j = 0; j < i; j++)
+				Assert.assertFalse("Vertices " + j + " and " + i + " are at the same position", 
+						Math.abs(vertices[i * 3] - vertices[j * 3]) <= tolerance &&
+						Math.abs(vertices[i * 3 + 1] - vertices[j * 3 + 1]) <= tolerance &&
+						Math.abs(vertices[i * 3 + 2] - vertices[j * 3 + 2]) <= tolerance);
+		}
+		
+		Assert.assertTrue("Vertices shared", mesh.getVertexCount() < expected.getTriangleCount() * 3);
+	}
+}
@@ -0,0 +1,231 @@
+package TerrainBaseTest;
+import java.lang.management.ManagementFactory;
+
+import org.junit.Assert;
+import org.junit.Test;
+import TerrainBase.DensityField;
+import TerrainBase.FixedViewpoint;
+import TerrainBase.Helpers;
+import TerrainBase.NoiseField;
+import TerrainBase.Scaffold;
+import TerrainBase.SphereField;
+import TerrainBase.TerrainField;
+import TerrainBase.TriangleBuffer;
+import processing.core.PApplet;
+import processing.core.PVector;
+
+public class ScaffoldTest {
+
+	@Test
+	//Once a scaffold has all the detail its viewpoint requires, an update pass should not allocate any memory
+	public void CheckSteadyStateUpdateAllocatesNothing() {
+		//Arrange
+		//-------
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		Assert.assertTrue("Allocation measurement not supported", bean instanceof com.sun.management.ThreadMXBean);
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+		long id = Thread.currentThread().getId();
+
+		boolean async = Helpers.AsyncLOD;
+		Helpers.AsyncLOD = false;
+
+		try
+		{
+			//Build the scaffold for a viewpoint just above the surface of the default sphere, then run enough updates
+			//for the code to be compiled
+			Scaffold s = new Scaffold(2);
+			s.setViewpoint(new FixedViewpoint(0, 0, Helpers.EarthDiameter / 2.5f * 1.2f));
+			s.refine(100);
+
+			for (int i = 0; i < 1000; i++)
+				s.update();
+
+			//Measuring allocation may itself allocate, so measure that first
+			long overhead = -threads.getThreadAllocatedBytes(id) + threads.getThreadAllocatedBytes(id);
+
+			//Act
+			//---
+			long before = threads.getThreadAllocatedBytes(id);
+
+			for (int i = 0; i < 100; i++)
+				s.update();
+
+			long allocated = threads.getThreadAllocatedBytes(id) - before - overhead;
+			s.dispose();
+
+			//Assert
+			//------
+			Assert.assertEquals(0, allocated);
+		}
+		finally
+		{
+			Helpers.AsyncLOD = async;
+		}
+	}
+
+	//Build a scaffold for the field with a viewpoint just above the surface and get its triangles
+	private static float[] triangles(DensityField field, PVector view, boolean culling)
+	{
+		Helpers.HorizonCulling = culling;
+		Scaffold s = new Scaffold(2, field);
+		s.setViewpoint(new FixedViewpoint(view.x, view.y, view.z));
+		s.refine(100);
+		TriangleBuffer b = new TriangleBuffer();
+		s.addTriangles(b);
+		s.dispose();
+		return b.getVertices();
+	}
+	
+	//Get the triangles that are not hidden behind the horizon of a sphere at the origin.  A point is visible if it is no 
+	//further from the viewpoint than the horizon plus its own distance to the horizon
+	private static float[] visible(float[] v, PVector view, float radius)
+	{
+		PVector centre = new PVector();
+		PVector p = new PVector();
+		float altitude = PVector.dist(view, centre);
+		float horizon = (float)Math.sqrt(altitude * altitude - radius * radius);
+		float[] visible = new float[v.length];
+		int count = 0;
+		
+		for (int t = 0; t < v.length; t += 9)
+		{
+			boolean seen = false;
+			
+			for (int i = t; i < t + 9; i += 3)
+			{
+				p.set(v[i], v[i + 1], v[i + 2]);
+				float a = PVector.dist(p, centre);
+				float h = a > radius ? (float)Math.sqrt(a * a - radius * radius) : 0;
+				seen |= PVector.dist(p, view) <= horizon + h;
+			}
+			
+			if (seen)
+			{
+				System.arraycopy(v, t, visible, count, 9);
+				count += 9;
+			}
+		}
+		
+		return java.util.Arrays.copyOf(visible, count);
+	}
+
+	@Test
+	//Horizon culling should only remove geometry that cannot be seen, so the visible triangles should be the same whether 
+	//it is on or off.  Terrain dips below sea level, so culling against the sea level sphere would remove visible valleys
+	public void CheckHorizonCullingKeepsVisibleTriangles() {
+		//Arrange
+		//-------
+		float r = Helpers.EarthDiameter / 2.5f;
+		DensityField field = new TerrainField(0, 0, 0, r);
+		boolean async = Helpers.AsyncLOD;
+		boolean culling = Helpers.HorizonCulling;
+		Helpers.AsyncLOD = false;
+
+		try
+		{
+			//Act
+			//---
+			PVector view = new PVector(0, 0, r * 1.01f);
+			float[] full = triangles(field, view, false);
+			float[] culled = triangles(field, view, true);
+
+			//The lowest point of the unculled surface bounds a sphere that is solid whatever the field reports, so 
+			//anything culled must lie behind its horizon
+			float lowest = Float.MAX_VALUE;
+			for (int i = 0; i < full.length; i += 3)
+				lowest = Math.min(lowest, (float)Math.sqrt(full[i] * full[i] + full[i + 1] * full[i + 1] + full[i + 2] * full[i + 2]));
+
+			//Assert
+			//------
+			Assert.assertTrue("Nothing was culled", culled.length < full.length);
+			Assert.assertArrayEquals("Visible triangles differ", visible(full, view, lowest), visible(culled, view, lowest), 0);
+		}
+		finally
+		{
+			Helpers.AsyncLOD = async;
+			Helpers.HorizonCulling = culling;
+		}
+	}
+
+	@Test
+	//A field with no region known to be solid offers no occluder, so nothing should be culled against the horizon
+	public void CheckNoiseFieldHasNoOccluder() {
+		//Arrange
+		//-------
+		DensityField field = new NoiseField(new PApplet(), 0.01f);
+
+		//Act
+		//---
+		float radius = field.solidSphere(new PVector());
+
+		//Assert
+		//------
+		Assert.assertEquals(0, radius, 0);
+	}
+
+	//Refine a scaffold for a viewpoint on one side of a level of detail boundary, step across it once, then move back and 
+	//forth across it, counting the levels of detail added and removed by every move after the first
+	private static int changesAcrossBoundary(float hysteresis, long minResidence)
+	{
+		float r = Helpers.EarthDiameter / 2.5f;
+		float boundary = Helpers.EarthDiameter / 20;
+		float near = r + boundary * 0.97f;
+		float far = r + boundary * 1.03f;
+		
+		Helpers.LODHysteresis = hysteresis;
+		Helpers.LODMinResidence = minResidence;
+		Scaffold s = new Scaffold(2);
+		FixedViewpoint view = new FixedViewpoint(0, 0, far);
+		s.setViewpoint(view);
+		s.refine(100);
+		
+		view.setPosition(0, 0, near);
+		s.refine(100);
+		
+		int changes = 0;
+		for (int i = 0; i < 10; i++)
+		{
+			view.setPosition(0, 0, i % 2 == 0 ? far : near);
+			s.update();
+			changes += Helpers.LODAdds + Helpers.LODClears;
+		}
+		
+		s.dispose();
+		return changes;
+	}
+	
+	@Test
+	//A viewpoint moving back and forth across a level of detail boundary should not repeatedly add and remove the same 
+	//detail, whether held off by the hysteresis band or by the minimum time detail stays in place
+	public void CheckLODIsStableAcrossBandBoundary() {
+		//Arrange
+		//-------
+		boolean async = Helpers.AsyncLOD;
+		float hysteresis = Helpers.LODHysteresis;
+		long minResidence = Helpers.LODMinResidence;
+		Helpers.AsyncLOD = false;
+		
+		try
+		{
+			//Without either the moves do cross a boundary, so detail changes every time
+			int unprotected = changesAcrossBoundary(0, 0);
+			
+			//Act
+			//---
+			int banded = changesAcrossBoundary(0.1f, 0);
+			int resident = changesAcrossBoundary(0, 60000);
+			
+			//Assert
+			//------
+			Assert.assertTrue("Moves do not cross a boundary", unprotected > 0);
+			Assert.assertEquals("Changes with hysteresis", 0, banded);
+			Assert.assertEquals("Changes with minimum residence time", 0, resident);
+		}
+		finally
+		{
+			Helpers.AsyncLOD = async;
+			Helpers.LODHysteresis = hysteresis;
+			Helpers.LODMinResidence = minResidence;
+		}
+	}
+}